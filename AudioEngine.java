@@ -0,0 +1,420 @@
+import javax.sound.sampled.AudioFormat;
+import javax.sound.sampled.AudioSystem;
+import javax.sound.sampled.DataLine;
+import javax.sound.sampled.LineUnavailableException;
+import javax.sound.sampled.Mixer;
+import javax.sound.sampled.SourceDataLine;
+import java.lang.management.ManagementFactory;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.atomic.AtomicReference;
+import java.util.concurrent.locks.LockSupport;
+import java.util.logging.Level;
+import java.util.logging.Logger;
+
+/*
+ * Live audio output for the piano.
+ *
+ * The samples come from the shared SampleBank and every sounding note is
+ * mixed (by a VoiceMixer) into a single SourceDataLine by a dedicated render
+ * thread, one fixed-size block at a time. This replaces the old approach of
+ * one Clip per note.
+ *
+ * Input threads never touch the voices: they post note events to a
+ * NoteEventQueue (one per producer thread) and the render thread applies
+ * them at the start of the next block.
+ *
+ * The output device and line buffer size can be changed while playing. The
+ * render thread counts underruns (the line running dry before the next block
+ * arrives) and, unless turned off, doubles the buffer when they keep
+ * happening. If the output cannot be reopened at all, the render thread
+ * keeps running without a line and tries again every second.
+ *
+ * Once running, the render loop (drain events, mix, effects, convert, write)
+ * must not allocate: a GC pause in a long practice session is an audible
+ * glitch. The render thread measures its own allocation every few hundred
+ * blocks and logs a warning if it allocates after warming up.
+ */
+public class AudioEngine {
+
+    // output format: same rate and channels as the samples
+    static final int CHANNELS = SampleBank.CHANNELS;
+    static final AudioFormat FORMAT = new AudioFormat(SampleBank.SAMPLE_RATE, 16, CHANNELS, true, false);
+
+    static final int BLOCK_FRAMES = VoiceMixer.BLOCK_FRAMES;
+
+    // output line buffer sizes offered in the settings, in frames
+    static final int[] BUFFER_SIZES = { 512, 1024, 2048, 4096, 8192 };
+    static final int DEFAULT_BUFFER_FRAMES = Integer.getInteger("melokeys.bufferFrames", 1024);
+
+    // this many underruns within the window make the buffer grow
+    private static final int UNDERRUN_LIMIT = 3;
+    private static final long UNDERRUN_WINDOW_NANOS = 5_000_000_000L;
+
+    // with no output line: one block period, and how often to try to reopen
+    private static final long BLOCK_NANOS = (long) (BLOCK_FRAMES * 1e9 / SampleBank.SAMPLE_RATE);
+    private static final long REOPEN_NANOS = 1_000_000_000L;
+
+    // events each input queue can hold between two blocks
+    private static final int QUEUE_CAPACITY = 1024;
+
+    // blocks between two allocation checks (about 1.5 s), and checks to skip
+    // while classes load and the JIT warms up
+    static final int ALLOCATION_CHECK_BLOCKS = 256;
+    private static final int ALLOCATION_WARMUP_CHECKS = 10;
+
+    private static final Logger LOG = Logger.getLogger(AudioEngine.class.getName());
+
+    private static AudioEngine instance;
+
+    // every sounding note, one voice per key press (render thread only)
+    private final VoiceMixer mixer = new VoiceMixer(SampleBank.get());
+
+    // reverb and EQ on the mixed signal (processed by the render thread)
+    private final EffectsBus effects = new EffectsBus();
+
+    // settings for the mixer, applied by the render thread
+    private volatile int polyphony = VoiceMixer.DEFAULT_POLYPHONY;
+    private volatile int releaseFrames = VoiceMixer.millisToFrames(VoiceMixer.DEFAULT_RELEASE_MILLIS);
+
+    // input queues, replaced (never modified) when a queue is opened
+    private volatile NoteEventQueue[] queues = new NoteEventQueue[0];
+
+    // events posted by the Swing event dispatch thread
+    private final NoteEventQueue swingQueue;
+
+    // output line, only touched by the render thread once it has started;
+    // null while the output could not be reopened
+    private SourceDataLine line;
+    private long lastReopen;
+    private int blocksSinceOpen;
+    private final Thread renderThread;
+
+    // current output settings, null device means the system default
+    private volatile Mixer.Info device;
+    private volatile int bufferFrames;
+    private volatile int requestedBufferFrames = DEFAULT_BUFFER_FRAMES;
+    private volatile boolean autoBuffer = true;
+
+    // why there is no output line, null while there is one
+    private volatile Exception outputFailure;
+
+    // output change asked for by setOutput, applied by the render thread
+    private final AtomicReference<OutputRequest> pendingOutput = new AtomicReference<>();
+
+    // underrun count and the times of the most recent ones
+    private volatile long underruns;
+    private final long[] recentUnderruns = new long[UNDERRUN_LIMIT];
+
+    // input times of the notes started in the current block, for LatencyStats
+    private final long[] startedInputTimes = new long[QUEUE_CAPACITY];
+    private int startedCount;
+
+    // bytes allocated by the render thread during the last check interval,
+    // -1 if the JVM cannot tell
+    private volatile long renderAllocatedBytes = -1;
+
+    // one engine (and one output line) for the whole application
+    public static synchronized AudioEngine get() throws LineUnavailableException {
+        if (instance == null) {
+            instance = new AudioEngine();
+        }
+        return instance;
+    }
+
+    // the engine if it has been started, otherwise null
+    static synchronized AudioEngine running() {
+        return instance;
+    }
+
+    private AudioEngine() throws LineUnavailableException {
+        swingQueue = openQueue();
+
+        line = openLine(null, DEFAULT_BUFFER_FRAMES);
+
+        renderThread = new Thread(this::render, "MeloKeys audio");
+        renderThread.setDaemon(true);
+        renderThread.setPriority(Thread.MAX_PRIORITY);
+        renderThread.start();
+    }
+
+    // a new input queue; only one thread may ever post to it, and the time
+    // of each event is when its input arrived (used for LatencyStats)
+    synchronized NoteEventQueue openQueue() {
+        NoteEventQueue queue = new NoteEventQueue(QUEUE_CAPACITY);
+        NoteEventQueue[] grown = Arrays.copyOf(queues, queues.length + 1);
+        grown[grown.length - 1] = queue;
+        queues = grown;
+        return queue;
+    }
+
+    // stop reading a queue from openQueue; events still in it are dropped
+    synchronized void closeQueue(NoteEventQueue queue) {
+        for (int i = 0; i < queues.length; i++) {
+            if (queues[i] == queue) {
+                NoteEventQueue[] shrunk = Arrays.copyOf(queues, queues.length - 1);
+                System.arraycopy(queues, i + 1, shrunk, i, queues.length - i - 1);
+                queues = shrunk;
+                return;
+            }
+        }
+    }
+
+    // the input queue for the Swing event dispatch thread
+    NoteEventQueue swingQueue() {
+        return swingQueue;
+    }
+
+    // maximum number of voices sounding at once (1 to VoicePool.MAX_VOICES),
+    // applied at the start of the next block
+    public void setPolyphony(int polyphony) {
+        this.polyphony = Math.max(1, Math.min(VoicePool.MAX_VOICES, polyphony));
+    }
+
+    public int getPolyphony() {
+        return polyphony;
+    }
+
+    // length of the fade-out after a key is released
+    public void setReleaseMillis(int millis) {
+        releaseFrames = VoiceMixer.millisToFrames(millis);
+    }
+
+    public int getReleaseMillis() {
+        return (int) (releaseFrames * 1000L / (int) SampleBank.SAMPLE_RATE);
+    }
+
+    // click track mixed with the notes, settings apply at the next block
+    Metronome metronome() {
+        return mixer.metronome();
+    }
+
+    // effects on the output, switched on and off through the bus
+    EffectsBus effects() {
+        return effects;
+    }
+
+    // output devices that can play the engine's format
+    static Mixer.Info[] outputDevices() {
+        DataLine.Info info = new DataLine.Info(SourceDataLine.class, FORMAT);
+        List<Mixer.Info> devices = new ArrayList<>();
+        for (Mixer.Info mixer : AudioSystem.getMixerInfo()) {
+            if (AudioSystem.getMixer(mixer).isLineSupported(info)) {
+                devices.add(mixer);
+            }
+        }
+        return devices.toArray(new Mixer.Info[0]);
+    }
+
+    // switch to another device (null for the default) and buffer size; the
+    // line is reopened by the render thread between two blocks
+    public CompletableFuture<Void> setOutput(Mixer.Info device, int bufferFrames) {
+        OutputRequest request = new OutputRequest(device, bufferFrames);
+        OutputRequest replaced = pendingOutput.getAndSet(request);
+        if (replaced != null) {
+            replaced.done.cancel(false);
+        }
+        return request.done;
+    }
+
+    public Mixer.Info getDevice() {
+        return device;
+    }
+
+    // actual size of the line buffer in frames
+    public int getBufferFrames() {
+        return bufferFrames;
+    }
+
+    // buffer size the line was last opened with, before any rounding by
+    // the line
+    public int getRequestedBufferFrames() {
+        return requestedBufferFrames;
+    }
+
+    // the error that left the engine without an output line (it retries
+    // every second), null while playing normally
+    public Exception getOutputFailure() {
+        return outputFailure;
+    }
+
+    // grow the buffer automatically when underruns keep happening
+    public void setAutoBuffer(boolean autoBuffer) {
+        this.autoBuffer = autoBuffer;
+    }
+
+    public boolean isAutoBuffer() {
+        return autoBuffer;
+    }
+
+    public long getUnderruns() {
+        return underruns;
+    }
+
+    // bytes the render thread allocated in its last check interval (about
+    // 1.5 s), expected to be 0; -1 if not supported by the JVM
+    public long getRenderAllocatedBytes() {
+        return renderAllocatedBytes;
+    }
+
+    private SourceDataLine openLine(Mixer.Info device, int frames) throws LineUnavailableException {
+        DataLine.Info info = new DataLine.Info(SourceDataLine.class, FORMAT);
+        SourceDataLine opened = (SourceDataLine) (device == null
+                ? AudioSystem.getLine(info)
+                : AudioSystem.getMixer(device).getLine(info));
+        opened.open(FORMAT, Math.max(2 * BLOCK_FRAMES, frames) * FORMAT.getFrameSize());
+        opened.start();
+        this.device = device;
+        this.bufferFrames = opened.getBufferSize() / FORMAT.getFrameSize();
+        this.requestedBufferFrames = frames;
+        blocksSinceOpen = 0;
+        return opened;
+    }
+
+    // render thread: replace the line, falling back to the old settings
+    private void applyOutput(OutputRequest request) {
+        Mixer.Info oldDevice = device;
+        int oldFrames = requestedBufferFrames;
+        if (line != null) {
+            line.close();
+            line = null;
+        }
+        try {
+            line = openLine(request.device, request.bufferFrames);
+            outputFailure = null;
+            request.done.complete(null);
+        } catch (LineUnavailableException | IllegalArgumentException e) {
+            request.done.completeExceptionally(e);
+            reopen(oldDevice, oldFrames);
+        }
+    }
+
+    // render thread: open the line with these settings, or stay without one
+    // (the render loop tries again later)
+    private void reopen(Mixer.Info device, int frames) {
+        lastReopen = System.nanoTime();
+        try {
+            line = openLine(device, frames);
+            if (outputFailure != null) {
+                LOG.info("Audio output reopened");
+            }
+            outputFailure = null;
+        } catch (LineUnavailableException | IllegalArgumentException e) {
+            if (outputFailure == null) {
+                LOG.log(Level.SEVERE, "Could not reopen the audio output, retrying every second", e);
+            }
+            outputFailure = e;
+        }
+    }
+
+    // render thread: the line ran dry before this block was written
+    private void onUnderrun(long now) {
+        long count = underruns;
+        long oldest = recentUnderruns[(int) (count % UNDERRUN_LIMIT)];
+        recentUnderruns[(int) (count % UNDERRUN_LIMIT)] = now;
+        underruns = count + 1;
+        int largest = BUFFER_SIZES[BUFFER_SIZES.length - 1];
+        if (autoBuffer && count >= UNDERRUN_LIMIT && now - oldest < UNDERRUN_WINDOW_NANOS
+                && bufferFrames < largest && pendingOutput.get() == null) {
+            int frames = Math.min(largest, bufferFrames * 2);
+            LOG.info(String.format("%d underruns in %d ms, growing the output buffer to %d frames",
+                    UNDERRUN_LIMIT, (now - oldest) / 1_000_000, frames));
+            applyOutput(new OutputRequest(device, frames));
+        }
+    }
+
+    private static final class OutputRequest {
+        final Mixer.Info device;
+        final int bufferFrames;
+        final CompletableFuture<Void> done = new CompletableFuture<>();
+
+        OutputRequest(Mixer.Info device, int bufferFrames) {
+            this.device = device;
+            this.bufferFrames = bufferFrames;
+        }
+    }
+
+    private void render() {
+        float[] mix = new float[BLOCK_FRAMES * CHANNELS];
+        byte[] out = new byte[BLOCK_FRAMES * FORMAT.getFrameSize()];
+        int[] events = new int[QUEUE_CAPACITY];
+        long[] times = new long[QUEUE_CAPACITY];
+        com.sun.management.ThreadMXBean threads = allocationCounter();
+        long allocated = threads != null ? threads.getCurrentThreadAllocatedBytes() : 0;
+        int blocks = 0;
+        int checks = 0;
+        while (true) {
+            OutputRequest request = pendingOutput.getAndSet(null);
+            if (request != null) {
+                applyOutput(request);
+            }
+            handleEvents(events, times);
+            mixer.mix(mix);
+            effects.process(mix, BLOCK_FRAMES);
+            VoiceMixer.toPcm(mix, out);
+            if (line == null) {
+                // no output: keep time and try the last settings again now and then
+                LockSupport.parkNanos(BLOCK_NANOS);
+                if (System.nanoTime() - lastReopen >= REOPEN_NANOS) {
+                    reopen(device, requestedBufferFrames);
+                }
+                startedCount = 0;
+                continue;
+            }
+            // an empty line once it has been filled means we were too late
+            int fillBlocks = bufferFrames / BLOCK_FRAMES;
+            if (blocksSinceOpen++ > fillBlocks && line.available() >= line.getBufferSize()) {
+                onUnderrun(System.nanoTime());
+            }
+            // blocks until the line has room, which paces the loop
+            line.write(out, 0, out.length);
+            long written = System.nanoTime();
+            for (int i = 0; i < startedCount; i++) {
+                LatencyStats.BUFFER_WRITE.record(written - startedInputTimes[i]);
+            }
+            startedCount = 0;
+
+            if (threads != null && ++blocks == ALLOCATION_CHECK_BLOCKS) {
+                blocks = 0;
+                long now = threads.getCurrentThreadAllocatedBytes();
+                renderAllocatedBytes = now - allocated;
+                allocated = now;
+                if (++checks == ALLOCATION_WARMUP_CHECKS + 1 && renderAllocatedBytes > 0) {
+                    LOG.warning(String.format("Render thread allocated %d bytes in %d blocks after warming up",
+                            renderAllocatedBytes, ALLOCATION_CHECK_BLOCKS));
+                }
+            }
+        }
+    }
+
+    // per-thread allocation counter, if this JVM has one
+    private static com.sun.management.ThreadMXBean allocationCounter() {
+        if (ManagementFactory.getThreadMXBean() instanceof com.sun.management.ThreadMXBean threads
+                && threads.isThreadAllocatedMemorySupported()) {
+            threads.setThreadAllocatedMemoryEnabled(true);
+            return threads;
+        }
+        return null;
+    }
+
+    // apply everything posted since the last block
+    private void handleEvents(int[] events, long[] times) {
+        if (mixer.polyphony() != polyphony) {
+            mixer.setPolyphony(polyphony);
+        }
+        mixer.setReleaseFrames(releaseFrames);
+        for (NoteEventQueue queue : queues) {
+            int count = queue.drain(events, times);
+            for (int i = 0; i < count; i++) {
+                if (mixer.handle(events[i])) {
+                    LatencyStats.VOICE_START.record(System.nanoTime() - times[i]);
+                    if (startedCount < startedInputTimes.length) {
+                        startedInputTimes[startedCount++] = times[i];
+                    }
+                }
+            }
+        }
+    }
+}
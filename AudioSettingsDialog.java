@@ -0,0 +1,207 @@
+import javax.sound.sampled.Mixer;
+import javax.swing.BorderFactory;
+import javax.swing.JButton;
+import javax.swing.JCheckBox;
+import javax.swing.JComboBox;
+import javax.swing.JDialog;
+import javax.swing.JFrame;
+import javax.swing.JLabel;
+import javax.swing.JOptionPane;
+import javax.swing.JPanel;
+import javax.swing.JSpinner;
+import javax.swing.SpinnerNumberModel;
+import javax.swing.SwingUtilities;
+import javax.swing.Timer;
+import java.awt.BorderLayout;
+import java.awt.Component;
+import java.awt.FlowLayout;
+import java.awt.GridLayout;
+import java.util.concurrent.CancellationException;
+
+/*
+ * Audio settings for a keyboard frame: output device, line buffer size,
+ * automatic buffer growth on underruns, polyphony, release time, the
+ * effects (reverb amount and a three band EQ) and the metronome.
+ */
+class AudioSettingsDialog extends JDialog {
+
+    private final AudioEngine engine;
+
+    private final JComboBox<DeviceItem> deviceBox = new JComboBox<>();
+    private final JComboBox<BufferItem> bufferBox = new JComboBox<>();
+    private final JCheckBox autoBufferBox = new JCheckBox("Grow buffer on underruns");
+    private final JSpinner polyphonySpinner;
+    private final JSpinner releaseSpinner;
+    private final JCheckBox reverbBox = new JCheckBox("Reverb");
+    private final JSpinner reverbSpinner;
+    private final JCheckBox eqBox = new JCheckBox("EQ");
+    private final JSpinner[] eqSpinners = new JSpinner[3];
+    private final JCheckBox metronomeBox = new JCheckBox("Metronome");
+    private final JSpinner bpmSpinner;
+    private final JSpinner beatsSpinner;
+    private final JComboBox<Integer> beatUnitBox = new JComboBox<>(new Integer[] { 2, 4, 8, 16 });
+    private final JLabel statusLabel = new JLabel();
+    private final Timer refresh = new Timer(500, e -> updateStatus());
+
+    AudioSettingsDialog(JFrame owner, AudioEngine engine) {
+        super(owner, "Audio settings", false);
+        this.engine = engine;
+
+        deviceBox.addItem(new DeviceItem(null));
+        for (Mixer.Info device : AudioEngine.outputDevices()) {
+            DeviceItem item = new DeviceItem(device);
+            deviceBox.addItem(item);
+            if (device.equals(engine.getDevice())) {
+                deviceBox.setSelectedItem(item);
+            }
+        }
+        int current = engine.getRequestedBufferFrames();
+        BufferItem closest = null;
+        for (int frames : AudioEngine.BUFFER_SIZES) {
+            BufferItem item = new BufferItem(frames);
+            bufferBox.addItem(item);
+            if (closest == null || Math.abs(frames - current) < Math.abs(closest.frames - current)) {
+                closest = item;
+            }
+        }
+        bufferBox.setSelectedItem(closest);
+        autoBufferBox.setSelected(engine.isAutoBuffer());
+        polyphonySpinner = new JSpinner(new SpinnerNumberModel(engine.getPolyphony(), 1, VoicePool.MAX_VOICES, 1));
+        releaseSpinner = new JSpinner(new SpinnerNumberModel(engine.getReleaseMillis(), 1, 2000, 10));
+        EffectsBus effects = engine.effects();
+        reverbBox.setSelected(effects.isEnabled(effects.reverb()));
+        reverbSpinner = new JSpinner(new SpinnerNumberModel(Math.round(effects.reverb().getWet() * 100), 0, 100, 5));
+        eqBox.setSelected(effects.isEnabled(effects.eq()));
+        JPanel eqPanel = new JPanel(new GridLayout(1, 3, 4, 0));
+        for (int band = 0; band < eqSpinners.length; band++) {
+            eqSpinners[band] = new JSpinner(new SpinnerNumberModel(Math.round(effects.eq().getGain(band)), -12, 12, 1));
+            eqPanel.add(eqSpinners[band]);
+        }
+
+        Metronome metronome = engine.metronome();
+        metronomeBox.setSelected(metronome.isEnabled());
+        bpmSpinner = new JSpinner(new SpinnerNumberModel(metronome.getBpm(), 20, 400, 1));
+        beatsSpinner = new JSpinner(new SpinnerNumberModel(metronome.getBeatsPerBar(), 1, 16, 1));
+        beatUnitBox.setSelectedItem(metronome.getBeatUnit());
+        JPanel signature = new JPanel(new GridLayout(1, 2, 4, 0));
+        signature.add(beatsSpinner);
+        signature.add(beatUnitBox);
+
+        JPanel fields = new JPanel(new GridLayout(0, 2, 8, 6));
+        fields.setBorder(BorderFactory.createEmptyBorder(10, 10, 10, 10));
+        fields.add(new JLabel("Output device"));
+        fields.add(deviceBox);
+        fields.add(new JLabel("Buffer size"));
+        fields.add(bufferBox);
+        fields.add(new JLabel(""));
+        fields.add(autoBufferBox);
+        fields.add(new JLabel("Polyphony (voices)"));
+        fields.add(polyphonySpinner);
+        fields.add(new JLabel("Release (ms)"));
+        fields.add(releaseSpinner);
+        fields.add(reverbBox);
+        fields.add(labelled(reverbSpinner, "% wet"));
+        fields.add(eqBox);
+        fields.add(labelled(eqPanel, "dB low/mid/high"));
+        fields.add(metronomeBox);
+        fields.add(labelled(bpmSpinner, "BPM"));
+        fields.add(new JLabel("Time signature"));
+        fields.add(signature);
+        fields.add(new JLabel("Status"));
+        fields.add(statusLabel);
+
+        JButton apply = new JButton("Apply");
+        apply.addActionListener(e -> apply());
+        JButton close = new JButton("Close");
+        close.addActionListener(e -> dispose());
+        JPanel buttons = new JPanel(new FlowLayout(FlowLayout.RIGHT));
+        buttons.add(apply);
+        buttons.add(close);
+
+        add(fields, BorderLayout.CENTER);
+        add(buttons, BorderLayout.SOUTH);
+        pack();
+        setLocationRelativeTo(owner);
+        updateStatus();
+        refresh.start();
+    }
+
+    @Override
+    public void dispose() {
+        refresh.stop();
+        super.dispose();
+    }
+
+    private void apply() {
+        engine.setPolyphony((Integer) polyphonySpinner.getValue());
+        engine.setReleaseMillis((Integer) releaseSpinner.getValue());
+        engine.setAutoBuffer(autoBufferBox.isSelected());
+        EffectsBus effects = engine.effects();
+        effects.reverb().setWet((Integer) reverbSpinner.getValue() / 100f);
+        effects.setEnabled(effects.reverb(), reverbBox.isSelected());
+        for (int band = 0; band < eqSpinners.length; band++) {
+            effects.eq().setGain(band, (Integer) eqSpinners[band].getValue());
+        }
+        effects.setEnabled(effects.eq(), eqBox.isSelected());
+        Metronome metronome = engine.metronome();
+        metronome.setBpm((Integer) bpmSpinner.getValue());
+        metronome.setTimeSignature((Integer) beatsSpinner.getValue(), (Integer) beatUnitBox.getSelectedItem());
+        metronome.setEnabled(metronomeBox.isSelected());
+        Mixer.Info device = ((DeviceItem) deviceBox.getSelectedItem()).device;
+        int frames = ((BufferItem) bufferBox.getSelectedItem()).frames;
+        // the line may round the buffer size, so compare with what was asked for
+        if (device == engine.getDevice() && frames == engine.getRequestedBufferFrames()
+                && engine.getOutputFailure() == null) {
+            return;
+        }
+        engine.setOutput(device, frames).whenComplete((done, error) -> SwingUtilities.invokeLater(() -> {
+            if (error != null && !(error instanceof CancellationException)) {
+                JOptionPane.showMessageDialog(this, "Could not open the output: " + error.getMessage(),
+                        "Audio settings", JOptionPane.ERROR_MESSAGE);
+            }
+            updateStatus();
+        }));
+    }
+
+    private static JPanel labelled(Component field, String unit) {
+        JPanel panel = new JPanel(new BorderLayout(4, 0));
+        panel.add(field, BorderLayout.CENTER);
+        panel.add(new JLabel(unit), BorderLayout.EAST);
+        return panel;
+    }
+
+    private void updateStatus() {
+        Exception failure = engine.getOutputFailure();
+        if (failure != null) {
+            statusLabel.setText("No output (" + failure.getMessage() + "), retrying");
+            return;
+        }
+        int frames = engine.getBufferFrames();
+        statusLabel.setText(String.format("%d frames (%.1f ms), %d underruns",
+                frames, frames * 1000.0 / SampleBank.SAMPLE_RATE, engine.getUnderruns()));
+    }
+
+    private static final class DeviceItem {
+        final Mixer.Info device;
+
+        DeviceItem(Mixer.Info device) {
+            this.device = device;
+        }
+
+        public String toString() {
+            return device == null ? "System default" : device.getName();
+        }
+    }
+
+    private static final class BufferItem {
+        final int frames;
+
+        BufferItem(int frames) {
+            this.frames = frames;
+        }
+
+        public String toString() {
+            return String.format("%d frames (%.1f ms)", frames, frames * 1000.0 / SampleBank.SAMPLE_RATE);
+        }
+    }
+}
@@ -0,0 +1,113 @@
+import java.io.File;
+import java.io.IOException;
+import java.io.UncheckedIOException;
+import java.sql.SQLException;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.RecursiveTask;
+
+/*
+ * Renders every song in the songs table to a WAV file, in parallel on a
+ * fork/join pool. Each worker mixes with its own OfflineRenderer while all of
+ * them read the same decoded SampleBank.
+ *
+ * Usage: java BatchRenderer <output directory> [threads] [bpm]
+ */
+final class BatchRenderer {
+
+    private BatchRenderer() {
+    }
+
+    // one song to render
+    private static final class Job {
+        final String name;
+        final NoteSequence sequence;
+        final File output;
+
+        Job(String name, NoteSequence sequence, File output) {
+            this.name = name;
+            this.sequence = sequence;
+            this.output = output;
+        }
+    }
+
+    // renders a range of jobs, splitting it until one song is left;
+    // returns the number of frames rendered
+    private static final class RenderTask extends RecursiveTask<Long> {
+        private final SampleBank bank;
+        private final List<Job> jobs;
+        private final int from;
+        private final int to;
+
+        RenderTask(SampleBank bank, List<Job> jobs, int from, int to) {
+            this.bank = bank;
+            this.jobs = jobs;
+            this.from = from;
+            this.to = to;
+        }
+
+        @Override
+        protected Long compute() {
+            if (to - from == 1) {
+                Job job = jobs.get(from);
+                try {
+                    return new OfflineRenderer(bank).render(job.sequence, job.output);
+                } catch (IOException e) {
+                    throw new UncheckedIOException("Could not render " + job.name, e);
+                }
+            }
+            int middle = (from + to) >>> 1;
+            RenderTask left = new RenderTask(bank, jobs, from, middle);
+            left.fork();
+            long right = new RenderTask(bank, jobs, middle, to).compute();
+            return left.join() + right;
+        }
+    }
+
+    // file name for a song, keeping only characters that are safe everywhere
+    static String fileName(String song) {
+        return song.replaceAll("[^A-Za-z0-9]+", "_").replaceAll("^_|_$", "") + ".wav";
+    }
+
+    public static void main(String[] args) throws SQLException, InterruptedException {
+        if (args.length < 1) {
+            System.err.println("Usage: java BatchRenderer <output directory> [threads] [bpm]");
+            System.exit(2);
+        }
+        File dir = new File(args[0]);
+        int threads = args.length > 1 ? Integer.parseInt(args[1]) : Runtime.getRuntime().availableProcessors();
+        int bpm = args.length > 2 ? Integer.parseInt(args[2]) : SongParser.DEFAULT_BPM;
+        if (!dir.isDirectory() && !dir.mkdirs()) {
+            System.err.println("Could not create " + dir);
+            System.exit(1);
+        }
+
+        List<Job> jobs = new ArrayList<>();
+        for (Map.Entry<String, String> song : SongLibrary.all().entrySet()) {
+            jobs.add(new Job(song.getKey(), SongParser.parse(song.getValue(), bpm), new File(dir, fileName(song.getKey()))));
+        }
+        if (jobs.isEmpty()) {
+            System.out.println("The songs table is empty");
+            return;
+        }
+        SampleBank bank = SampleBank.get();
+        bank.awaitLoaded();
+
+        ForkJoinPool pool = new ForkJoinPool(threads);
+        long start = System.nanoTime();
+        long frames;
+        try {
+            frames = pool.invoke(new RenderTask(bank, jobs, 0, jobs.size()));
+        } finally {
+            pool.shutdown();
+        }
+        double seconds = (System.nanoTime() - start) / 1e9;
+        double audioSeconds = frames / SampleBank.SAMPLE_RATE;
+        System.out.printf("Rendered %d songs (%.1f s of audio) in %.2f s on %d threads%n",
+                jobs.size(), audioSeconds, seconds, threads);
+        System.out.printf("%.2f songs/s, %.0fx real time per core%n",
+                jobs.size() / seconds, audioSeconds / seconds / threads);
+    }
+}
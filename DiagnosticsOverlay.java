@@ -0,0 +1,98 @@
+import javax.swing.JComponent;
+import javax.swing.Timer;
+import java.awt.Color;
+import java.awt.Font;
+import java.awt.FontMetrics;
+import java.awt.Graphics;
+import java.awt.Graphics2D;
+import java.awt.RenderingHints;
+
+/*
+ * Glass pane that shows the key-to-audio latency (p50 / p99 / max), the
+ * output buffer state and render thread allocation over a keyboard frame.
+ * It is hidden by default and refreshes twice a second while visible.
+ */
+class DiagnosticsOverlay extends JComponent {
+
+    private final Timer refresh = new Timer(500, e -> repaint());
+
+    DiagnosticsOverlay() {
+        setOpaque(false);
+        setVisible(false);
+    }
+
+    void toggle() {
+        setVisible(!isVisible());
+    }
+
+    @Override
+    public void setVisible(boolean visible) {
+        super.setVisible(visible);
+        if (visible) {
+            refresh.start();
+        } else {
+            refresh.stop();
+        }
+    }
+
+    @Override
+    protected void paintComponent(Graphics graphics) {
+        Graphics2D g = (Graphics2D) graphics;
+        g.setRenderingHint(RenderingHints.KEY_TEXT_ANTIALIASING, RenderingHints.VALUE_TEXT_ANTIALIAS_ON);
+        g.setFont(new Font("Monospaced", Font.PLAIN, 12));
+        FontMetrics metrics = g.getFontMetrics();
+
+        String[] lines = lines();
+        int lineHeight = metrics.getHeight();
+        int width = 0;
+        for (String line : lines) {
+            width = Math.max(width, metrics.stringWidth(line));
+        }
+        int x = getWidth() - width - 20;
+        int y = 10;
+        g.setColor(new Color(0, 0, 0, 190));
+        g.fillRoundRect(x, y, width + 16, lines.length * lineHeight + 10, 10, 10);
+        g.setColor(Color.GREEN);
+        for (int i = 0; i < lines.length; i++) {
+            g.drawString(lines[i], x + 8, y + 5 + metrics.getAscent() + i * lineHeight);
+        }
+    }
+
+    // text shown in the overlay
+    protected String[] lines() {
+        LatencyHistogram[] histograms = LatencyStats.ALL;
+        String[] lines = new String[histograms.length + 5];
+        lines[0] = "latency (ms)             p50     p99     max";
+        for (int i = 0; i < histograms.length; i++) {
+            LatencyHistogram h = histograms[i];
+            lines[i + 1] = String.format("%-22s %7.2f %7.2f %7.2f", h.name(),
+                    h.percentileNanos(0.50) / 1e6, h.percentileNanos(0.99) / 1e6, h.maxNanos() / 1e6);
+        }
+        AudioEngine engine = AudioEngine.running();
+        Exception failure = engine == null ? null : engine.getOutputFailure();
+        lines[histograms.length + 1] = engine == null ? "output: not started"
+                : failure != null ? "output: lost (" + failure.getMessage() + "), retrying"
+                : String.format("output: %d frames (%.1f ms), %d underruns", engine.getBufferFrames(),
+                        engine.getBufferFrames() * 1000.0 / SampleBank.SAMPLE_RATE, engine.getUnderruns());
+        long allocated = engine == null ? -1 : engine.getRenderAllocatedBytes();
+        lines[histograms.length + 2] = allocated < 0 ? "render thread allocation: n/a"
+                : String.format("render thread allocation: %d bytes / %d blocks", allocated,
+                        AudioEngine.ALLOCATION_CHECK_BLOCKS);
+        lines[histograms.length + 3] = engine == null ? "effects: n/a" : effectsLine(engine.effects());
+        lines[histograms.length + 4] = String.format("notes: %d   (F12 to hide)", LatencyStats.BUFFER_WRITE.count());
+        return lines;
+    }
+
+    // processing time of each effect that is on, against the block period
+    private static String effectsLine(EffectsBus bus) {
+        double blockMicros = AudioEngine.BLOCK_FRAMES * 1e6 / SampleBank.SAMPLE_RATE;
+        StringBuilder line = new StringBuilder("effects:");
+        for (Effect effect : new Effect[] { bus.eq(), bus.reverb() }) {
+            if (bus.isEnabled(effect)) {
+                double micros = bus.nanosPerBlock(effect) / 1e3;
+                line.append(String.format(" %s %.1f us (%.1f%%)", effect.name(), micros, 100 * micros / blockMicros));
+            }
+        }
+        return line.length() == "effects:".length() ? "effects: off" : line.append(" per block").toString();
+    }
+}
@@ -0,0 +1,15 @@
+/*
+ * A block effect on the mixed output. Effects work in place on interleaved
+ * stereo float blocks and allocate every buffer they need when created, so
+ * processing a block never allocates.
+ */
+interface Effect {
+
+    String name();
+
+    // process frames interleaved stereo frames of block in place
+    void process(float[] block, int frames);
+
+    // clear delay lines and filter state
+    void reset();
+}
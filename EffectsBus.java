@@ -0,0 +1,83 @@
+/*
+ * Effects applied to the mixed block before it is converted to PCM. The chain
+ * is fixed when the bus is created (EQ then reverb); effects are switched on
+ * and off from any thread and the render thread picks the change up at the
+ * next block. Each effect's processing time per block is measured so its CPU
+ * cost can be shown next to the block period.
+ */
+final class EffectsBus {
+
+    // weight of the newest block in the average processing time
+    private static final double AVERAGE_WEIGHT = 1.0 / 64;
+
+    private final ThreeBandEq eq = new ThreeBandEq();
+    private final Reverb reverb = new Reverb();
+    private final Slot[] chain = { new Slot(eq), new Slot(reverb) };
+
+    ThreeBandEq eq() {
+        return eq;
+    }
+
+    Reverb reverb() {
+        return reverb;
+    }
+
+    void setEnabled(Effect effect, boolean enabled) {
+        slot(effect).enabled = enabled;
+    }
+
+    boolean isEnabled(Effect effect) {
+        return slot(effect).enabled;
+    }
+
+    // average time the effect takes per block, 0 while it is off
+    long nanosPerBlock(Effect effect) {
+        return slot(effect).nanos;
+    }
+
+    // run the enabled effects over the block (render thread only)
+    void process(float[] block, int frames) {
+        for (Slot slot : chain) {
+            if (!slot.enabled) {
+                if (slot.active) {
+                    slot.active = false;
+                    slot.nanos = 0;
+                    slot.average = 0;
+                }
+                continue;
+            }
+            if (!slot.active) {
+                // start from silence rather than whatever was left when it was switched off
+                slot.effect.reset();
+                slot.active = true;
+            }
+            long start = System.nanoTime();
+            slot.effect.process(block, frames);
+            long took = System.nanoTime() - start;
+            slot.average += (took - slot.average) * AVERAGE_WEIGHT;
+            slot.nanos = (long) slot.average;
+        }
+    }
+
+    private Slot slot(Effect effect) {
+        for (Slot slot : chain) {
+            if (slot.effect == effect) {
+                return slot;
+            }
+        }
+        throw new IllegalArgumentException("not on this bus: " + effect.name());
+    }
+
+    private static final class Slot {
+        final Effect effect;
+        volatile boolean enabled;
+        volatile long nanos;
+        // render thread only
+        boolean active;
+        double average;
+
+        Slot(Effect effect) {
+            this.effect = effect;
+        }
+    }
+}
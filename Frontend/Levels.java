@@ -23,6 +23,8 @@ public class Levels extends javax.swing.JFrame {
     public Levels(String username) {
         initComponents();
         this.username = username;
+        // start loading the piano samples while a mode is being chosen
+        SampleBank.get();
     }
 
     /**
@@ -0,0 +1,89 @@
+import java.util.concurrent.locks.LockSupport;
+import java.util.function.IntConsumer;
+
+/*
+ * Plays a recorded NoteSequence (usually a NoteJournal) back in real time,
+ * at the original speed or faster. Events go into an engine input queue from
+ * the replayer's own thread, which sleeps until each event is due; every
+ * event is also handed to a listener, e.g. to light up the keys.
+ *
+ * Notes still sounding when playback ends or is stopped are released, and
+ * a sustain pedal left down is lifted (the pedal is shared with live play).
+ */
+final class JournalReplayer {
+
+    private final NoteSequence sequence;
+    private final NoteEventQueue queue;
+    private final double speed;
+    private final IntConsumer listener;
+    private final Thread thread;
+    private volatile boolean stopped;
+
+    // queue must not be posted to by any other thread while this plays
+    JournalReplayer(NoteSequence sequence, NoteEventQueue queue, double speed, IntConsumer listener) {
+        if (!(speed > 0)) {
+            throw new IllegalArgumentException("speed must be positive: " + speed);
+        }
+        this.sequence = sequence;
+        this.queue = queue;
+        this.speed = speed;
+        this.listener = listener;
+        this.thread = new Thread(this::play, "MeloKeys replay");
+        thread.setDaemon(true);
+    }
+
+    void start() {
+        thread.start();
+    }
+
+    // stop playing and wait until the thread has let go of the queue
+    void stop() throws InterruptedException {
+        stopped = true;
+        LockSupport.unpark(thread);
+        thread.join();
+    }
+
+    boolean isPlaying() {
+        return thread.isAlive();
+    }
+
+    private void play() {
+        long sounding = 0;
+        boolean pedalDown = false;
+        long start = System.nanoTime();
+        long first = sequence.size() > 0 ? sequence.time(0) : 0;
+        for (int i = 0; i < sequence.size() && !stopped; i++) {
+            long due = start + (long) ((sequence.time(i) - first) / speed);
+            long wait;
+            while (!stopped && (wait = due - System.nanoTime()) > 0) {
+                LockSupport.parkNanos(wait);
+            }
+            if (stopped) break;
+            int event = sequence.event(i);
+            int note = NoteEventQueue.note(event);
+            switch (NoteEventQueue.type(event)) {
+                case NoteEventQueue.NOTE_ON -> sounding |= 1L << note;
+                case NoteEventQueue.NOTE_OFF -> sounding &= ~(1L << note);
+                case NoteEventQueue.SUSTAIN -> pedalDown = NoteEventQueue.velocity(event) >= 64;
+            }
+            post(event);
+        }
+        for (int note = 0; sounding != 0; note++) {
+            if ((sounding & 1L << note) != 0) {
+                post(NoteEventQueue.noteOff(note));
+                sounding &= ~(1L << note);
+            }
+        }
+        if (pedalDown) {
+            post(NoteEventQueue.sustain(false));
+        }
+    }
+
+    private void post(int event) {
+        // the render thread drains every block, so a full queue clears quickly
+        while (!queue.offer(event, System.nanoTime())) {
+            LockSupport.parkNanos(1_000_000);
+        }
+        listener.accept(event);
+    }
+}
@@ -0,0 +1,186 @@
+import java.awt.Component;
+import java.awt.event.KeyEvent;
+import java.io.BufferedReader;
+import java.io.File;
+import java.io.FileReader;
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.Map;
+
+/*
+ * Which computer key plays which note, loaded once from a layout file in
+ * layouts/ (qwerty, azerty, qwertz; choose with -Dmelokeys.layout=azerty, or
+ * give the path of a .layout file).
+ *
+ * A layout file has one line per key from the lowest note up: the label drawn
+ * on the key, then the keys that play it, as KeyEvent VK_ names (Z, COMMA,
+ * OPEN_BRACKET, 2) or as a single character for keys that Java reports by
+ * their extended key code (accented letters, for example). Blank lines and
+ * lines starting with # are ignored.
+ *
+ * Lookup is by key code, which does not change with Shift or Caps Lock: a
+ * single read from a 64K table. A layout is loaded (and its tables built)
+ * once, later loads of the same name return it again; it does not change
+ * once loaded.
+ */
+final class KeyLayout {
+
+    static final String DEFAULT = System.getProperty("melokeys.layout", "qwerty");
+
+    private static final int NONE = -1;
+
+    // key ids (see keyId) are below this
+    static final int KEY_IDS = 0x20000;
+
+    // base of the extended key codes Java gives keys with no VK_ constant
+    private static final int EXTENDED_CHAR = 0x01000000;
+
+    private final String name;
+
+    // key code -> layout index, and unicode char -> index for extended codes
+    private final byte[] byKeyCode = new byte[0x10000];
+    private final byte[] byChar = new byte[0x10000];
+
+    private final StringBuilder labels = new StringBuilder();
+
+    // layouts loaded so far, by the name they were loaded with
+    private static final Map<String, KeyLayout> LOADED = new HashMap<>();
+
+    private KeyLayout(String name) {
+        this.name = name;
+        Arrays.fill(byKeyCode, (byte) NONE);
+        Arrays.fill(byChar, (byte) NONE);
+    }
+
+    // the layout chosen with melokeys.layout
+    static KeyLayout get() throws IOException {
+        return load(DEFAULT);
+    }
+
+    // a layout by name (layouts/<name>.layout) or by path, read the first
+    // time it is asked for
+    static synchronized KeyLayout load(String name) throws IOException {
+        KeyLayout layout = LOADED.get(name);
+        if (layout == null) {
+            layout = read(name);
+            LOADED.put(name, layout);
+        }
+        return layout;
+    }
+
+    private static KeyLayout read(String name) throws IOException {
+        File file = name.endsWith(".layout") ? new File(name) : new File("layouts", name + ".layout");
+        KeyLayout layout = new KeyLayout(name);
+        try (BufferedReader in = new BufferedReader(new FileReader(file, StandardCharsets.UTF_8))) {
+            String line;
+            int lineNumber = 0;
+            while ((line = in.readLine()) != null) {
+                lineNumber++;
+                line = line.strip();
+                if (line.isEmpty() || line.startsWith("#")) continue;
+                String[] fields = line.split("\\s+");
+                if (fields.length < 2) {
+                    throw new IOException(file + ":" + lineNumber + ": expected a label and at least one key");
+                }
+                int index = layout.labels.length();
+                if (index == SampleBank.NOTE_COUNT) {
+                    throw new IOException(file + ":" + lineNumber + ": more than " + SampleBank.NOTE_COUNT + " keys");
+                }
+                layout.labels.append(fields[0].charAt(0));
+                for (int i = 1; i < fields.length; i++) {
+                    if (!layout.map(fields[i], index)) {
+                        throw new IOException(file + ":" + lineNumber + ": unknown or repeated key " + fields[i]);
+                    }
+                }
+            }
+        }
+        if (layout.size() == 0) {
+            throw new IOException(file + ": no keys");
+        }
+        return layout;
+    }
+
+    // map one key to a layout index; false if it is unknown or already mapped
+    private boolean map(String key, int index) {
+        byte[] table;
+        int slot;
+        int code = keyCode(key);
+        if (code != KeyEvent.VK_UNDEFINED) {
+            table = byKeyCode;
+            slot = code;
+        } else if (key.length() == 1) {
+            table = byChar;
+            slot = key.charAt(0);
+        } else {
+            return false;
+        }
+        if (slot > 0xffff || table[slot] != NONE) {
+            return false;
+        }
+        table[slot] = (byte) index;
+        return true;
+    }
+
+    // value of the KeyEvent.VK_ constant with this name, VK_UNDEFINED if none
+    private static int keyCode(String name) {
+        try {
+            return KeyEvent.class.getField("VK_" + name.toUpperCase()).getInt(null);
+        } catch (NoSuchFieldException | IllegalAccessException e) {
+            return KeyEvent.VK_UNDEFINED;
+        }
+    }
+
+    String name() {
+        return name;
+    }
+
+    // keys in the layout
+    int size() {
+        return labels.length();
+    }
+
+    // label drawn on the key at a layout index
+    char label(int index) {
+        return labels.charAt(index);
+    }
+
+    // every label in key order
+    String labels() {
+        return labels.toString();
+    }
+
+    // layout index of the key in a key event, -1 if it is not in the layout;
+    // an event made without an extended key code is looked up by its char
+    int index(KeyEvent e) {
+        int code = e.getKeyCode();
+        if (code != KeyEvent.VK_UNDEFINED) {
+            return byKeyCode[code & 0xffff];
+        }
+        int extended = e.getExtendedKeyCode();
+        if (extended > EXTENDED_CHAR) {
+            return byChar[(extended - EXTENDED_CHAR) & 0xffff];
+        }
+        return e.getKeyChar() == KeyEvent.CHAR_UNDEFINED ? NONE : byChar[e.getKeyChar()];
+    }
+
+    // a number for the key of an event, the same for its press and release and
+    // different for every key: the key code, or for keys without one
+    // (VK_UNDEFINED) 0x10000 plus the char of the extended key code
+    static int keyId(KeyEvent e) {
+        int code = e.getKeyCode();
+        if (code != KeyEvent.VK_UNDEFINED) {
+            return code & 0xffff;
+        }
+        int extended = e.getExtendedKeyCode();
+        return 0x10000 | (extended > EXTENDED_CHAR ? (extended - EXTENDED_CHAR) & 0xffff : 0);
+    }
+
+    // a key released event for a key id, that index maps to the same key
+    static KeyEvent releaseEvent(Component source, int keyId, long when) {
+        return keyId < 0x10000
+                ? new KeyEvent(source, KeyEvent.KEY_RELEASED, when, 0, keyId, KeyEvent.CHAR_UNDEFINED)
+                : new KeyEvent(source, KeyEvent.KEY_RELEASED, when, 0, KeyEvent.VK_UNDEFINED, (char) (keyId & 0xffff));
+    }
+}
@@ -0,0 +1,140 @@
+import javax.swing.SwingUtilities;
+import java.awt.event.FocusEvent;
+import java.awt.event.FocusListener;
+import java.awt.event.KeyEvent;
+import java.awt.event.KeyListener;
+
+/*
+ * Removes OS key auto-repeat in front of a KeyListener, so that holding a key
+ * gives exactly one keyPressed (and one keyTyped) and one keyReleased.
+ *
+ * Auto-repeat shows up in two ways. Windows and macOS send more keyPressed
+ * events for a key that is already down; those are dropped. X11 sends a
+ * keyReleased immediately followed by a keyPressed for every repeat, so a
+ * release is held back: it is forwarded by a Runnable posted to the end of
+ * the event queue, and a keyPressed for the same key that arrives first
+ * (already queued behind the release) cancels it. The Runnable and the
+ * pending slots are allocated once.
+ *
+ * Keys released while the component does not have the focus never send a
+ * keyReleased, so when the focus is lost every key still down is released.
+ * Register the filter as a FocusListener on the same component for that.
+ *
+ * Used on the event dispatch thread only.
+ */
+final class KeyRepeatFilter implements KeyListener, FocusListener {
+
+    // releases waiting for the flush, more at once are forwarded straight away
+    private static final int MAX_PENDING = 16;
+
+    private final KeyListener target;
+
+    // keys currently down by KeyLayout.keyId, one bit each, so keys that only
+    // have an extended key code (accented letters) are told apart
+    private final long[] down = new long[KeyLayout.KEY_IDS / 64];
+
+    // held back releases and their key ids, -1 once cancelled
+    private final KeyEvent[] pending = new KeyEvent[MAX_PENDING];
+    private final int[] pendingKeys = new int[MAX_PENDING];
+    private int pendingCount;
+    private boolean flushPosted;
+    private final Runnable flush = this::flush;
+
+    // the last keyPressed was a repeat, so the keyTyped after it is one too
+    private boolean repeating;
+
+    KeyRepeatFilter(KeyListener target) {
+        this.target = target;
+    }
+
+    @Override
+    public void keyPressed(KeyEvent e) {
+        int key = KeyLayout.keyId(e);
+        repeating = isDown(key);
+        if (repeating) {
+            // a release/press pair from X11, or a plain repeated press
+            cancelPending(key);
+            return;
+        }
+        setDown(key, true);
+        target.keyPressed(e);
+    }
+
+    @Override
+    public void keyTyped(KeyEvent e) {
+        if (!repeating) {
+            target.keyTyped(e);
+        }
+    }
+
+    @Override
+    public void keyReleased(KeyEvent e) {
+        int key = KeyLayout.keyId(e);
+        if (!isDown(key)) return;
+        if (pendingCount == MAX_PENDING) {
+            setDown(key, false);
+            target.keyReleased(e);
+            return;
+        }
+        pending[pendingCount] = e;
+        pendingKeys[pendingCount++] = key;
+        if (!flushPosted) {
+            flushPosted = true;
+            SwingUtilities.invokeLater(flush);
+        }
+    }
+
+    @Override
+    public void focusGained(FocusEvent e) {
+    }
+
+    // the releases for keys still down will never come: send them now
+    @Override
+    public void focusLost(FocusEvent e) {
+        flush();
+        repeating = false;
+        long when = System.currentTimeMillis();
+        for (int word = 0; word < down.length; word++) {
+            while (down[word] != 0) {
+                int key = word << 6 | Long.numberOfTrailingZeros(down[word]);
+                setDown(key, false);
+                target.keyReleased(KeyLayout.releaseEvent(e.getComponent(), key, when));
+            }
+        }
+    }
+
+    // forward the releases that no repeat press cancelled
+    private void flush() {
+        flushPosted = false;
+        for (int i = 0; i < pendingCount; i++) {
+            KeyEvent e = pending[i];
+            int key = pendingKeys[i];
+            pending[i] = null;
+            if (key >= 0 && isDown(key)) {
+                setDown(key, false);
+                target.keyReleased(e);
+            }
+        }
+        pendingCount = 0;
+    }
+
+    private void cancelPending(int key) {
+        for (int i = 0; i < pendingCount; i++) {
+            if (pendingKeys[i] == key) {
+                pendingKeys[i] = -1;
+            }
+        }
+    }
+
+    private boolean isDown(int key) {
+        return (down[key >>> 6] & 1L << key) != 0;
+    }
+
+    private void setDown(int key, boolean isDown) {
+        if (isDown) {
+            down[key >>> 6] |= 1L << key;
+        } else {
+            down[key >>> 6] &= ~(1L << key);
+        }
+    }
+}
@@ -9,10 +9,14 @@
  */
 import javax.sound.sampled.LineUnavailableException;
 import javax.sound.sampled.UnsupportedAudioFileException;
+import javax.swing.JFileChooser;
 import javax.swing.JFrame;
+import javax.swing.JOptionPane;
 import javax.swing.JPanel;
+import javax.swing.KeyStroke;
 import javax.swing.SwingUtilities;
 import javax.swing.WindowConstants;
+import javax.swing.filechooser.FileNameExtensionFilter;
 import java.awt.Color;
 import java.awt.Dimension;
 import java.awt.Font;
@@ -23,11 +27,19 @@ import java.awt.RenderingHints;
 import java.awt.event.KeyEvent;
 import java.awt.event.KeyListener;
 import java.awt.geom.Rectangle2D;
+import java.io.File;
 import java.io.IOException;
 import java.util.ArrayList;
-import java.util.LinkedList;
+import java.util.Arrays;
 import java.util.NoSuchElementException;
-import java.util.TreeSet;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Flow;
+import java.util.concurrent.SubmissionPublisher;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.locks.LockSupport;
+import java.util.function.BiPredicate;
 import java.sql.*;
 import javax.swing.ImageIcon;
 import java.awt.BorderLayout;
@@ -43,6 +55,9 @@ public class Keyboard_fp {
     private static final int DEFAULT_FONT_SIZE_BLACK_KEY = 16;
     private static final int DEFAULT_FONT_SIZE_WHITE_KEY = 16;
 
+    // key used as the sustain pedal, e.g. -Dmelokeys.sustainKey=SHIFT
+    private static final int SUSTAIN_KEY = sustainKey();
+
     // initial width and height
     private final int initialWidth;
     private final int initialHeight;
@@ -51,34 +66,92 @@ public class Keyboard_fp {
     private final ArrayList<Key> blackKeys = new ArrayList<Key>();
     private final ArrayList<Key> whiteKeys = new ArrayList<Key>();
 
-    // new object for synchronization of key typed, pressed and released
-    private final Object keyLock = new Object();
-
-    // queue of typed keys (yet to be processed by client)
-    private LinkedList<Character> keysTyped = new LinkedList<Character>();
-
-    // set of key characters currently pressed down
-    private TreeSet<Character> keysDown = new TreeSet<Character>();
+    // notes played and when (yet to be processed by client); the oldest are
+    // forgotten if nobody takes them
+    private static final int KEYS_PLAYED_CAPACITY = 256;
+    private final NoteRing keysPlayed = new NoteRing(KEYS_PLAYED_CAPACITY, NoteRing.Overflow.DROP_OLDEST);
+
+    // returned by awaitNextKeyPlayed when no key was played in time
+    public static final char NO_KEY_PLAYED = '\0';
+
+    // delivers published notes to subscribers, for every keyboard
+    private static final ExecutorService NOTE_DELIVERY = Executors.newSingleThreadExecutor(task -> {
+        Thread thread = new Thread(task, "MeloKeys note events");
+        thread.setDaemon(true);
+        return thread;
+    });
+
+    // every note on and off, pushed to subscribers; one that falls more than
+    // its buffer behind loses notes rather than holding up the EDT
+    private final SubmissionPublisher<PlayedNote> notePublisher =
+            new SubmissionPublisher<>(NOTE_DELIVERY, Flow.defaultBufferSize());
+    private final AtomicLong notesDropped = new AtomicLong();
+    private final BiPredicate<Flow.Subscriber<? super PlayedNote>, PlayedNote> countDropped = (subscriber, note) -> {
+        notesDropped.incrementAndGet();
+        return false;
+    };
+
+    // notes played on the EDT, waiting for the forwarder thread to publish
+    // them: the EDT only writes primitives here, so it does not allocate
+    private static final int PLAYED_EVENTS_CAPACITY = 256;
+    private final NoteEventQueue playedEvents = new NoteEventQueue(PLAYED_EVENTS_CAPACITY);
+    private final Thread noteForwarder = new Thread(this::forwardNotes, "MeloKeys note forwarder");
+
+    // the same for notes from MIDI inputs, which may play from several
+    // threads, so posting to it is locked
+    private final NoteEventQueue midiPlayedEvents = new NoteEventQueue(PLAYED_EVENTS_CAPACITY);
+    private volatile boolean forwarding = true;
+
+    // computer keys to piano keys, and the note of the first piano key
+    private final KeyLayout layout;
+    private final int firstNote;
+
+    // notes currently pressed down, read and written without locking
+    private final NoteBitSet keysDown = new NoteBitSet();
     
     private JFrame frame;
     private javax.swing.JButton jButton2;
+    private javax.swing.JButton jButton3;
+    private javax.swing.JButton jButton4;
+
+    // everything played on this keyboard, kept on disk (null if it could not
+    // be created), and the queue the EDT posts to it through
+    private NoteJournal journal;
+    private NoteEventQueue journalEvents;
+
+    // playback of a journal, and the engine queue it posts to
+    private JournalReplayer replayer;
+    private NoteEventQueue replayQueue;
+
+    // latency overlay, toggled with F12
+    private final DiagnosticsOverlay diagnostics = new DiagnosticsOverlay();
     private static String username;
     // default 36 keys or 3 octaves keyboard
     public Keyboard_fp(String username) throws UnsupportedAudioFileException, LineUnavailableException, IOException {
-        this("zsxdcvgbhnjm,l.;/q2w3e4rt6y7ui9o0p-[", "C", username);
+        this(KeyLayout.get(), "C", username);
     }
 
     // for any customisation
-    private Keyboard_fp(String keyboardString, String firstWhiteKey, String username) throws UnsupportedAudioFileException, LineUnavailableException, IOException {
+    private Keyboard_fp(KeyLayout layout, String firstWhiteKey, String username) throws UnsupportedAudioFileException, LineUnavailableException, IOException {
         this.username = username;
+        this.layout = layout;
         String[] whiteKeyNames = { "C", "D", "E", "F", "G", "A", "B" };
+        int firstWhite = Arrays.asList(whiteKeyNames).indexOf(firstWhiteKey);
+        if (firstWhite < 0) {
+            throw new IllegalArgumentException("Not a white key: " + firstWhiteKey);
+        }
+        firstNote = "C D EF G A B".indexOf(firstWhiteKey);
+        if (firstNote + layout.size() > SampleBank.NOTE_COUNT) {
+            throw new IllegalArgumentException("Layout " + layout.name() + " goes past the last sample when starting on " + firstWhiteKey);
+        }
+        String keyboardString = layout.labels();
 
         // create the white and black keys
         for (int i = 0; i < keyboardString.length(); i++) {
 
-            // next key is white, and after 7 keys, repeats with C again
-            String whiteKeyName = whiteKeyNames[whiteKeys.size() % 7];
-            Key whiteKey = new Key(whiteKeys.size(), whiteKeyName, keyboardString.charAt(i),
+            // next key is white, and after 7 keys, repeats with the first again
+            String whiteKeyName = whiteKeyNames[(firstWhite + whiteKeys.size()) % 7];
+            Key whiteKey = new Key(whiteKeys.size(), whiteKeyName, keyboardString.charAt(i), firstNote + i,
                                    WHITE_KEY);
             whiteKeys.add(whiteKey);
 
@@ -87,7 +160,7 @@ public class Keyboard_fp {
                 i++;
                 if (i >= keyboardString.length()) break;
                 String blackKeyName = whiteKeyName + "#";
-                Key blackKey = new Key(whiteKeys.size(), blackKeyName, keyboardString.charAt(i),
+                Key blackKey = new Key(whiteKeys.size(), blackKeyName, keyboardString.charAt(i), firstNote + i,
                                        BLACK_KEY);
                 blackKeys.add(blackKey);
             }
@@ -97,6 +170,17 @@ public class Keyboard_fp {
         initialWidth = 55 * whiteKeys.size();
         initialHeight = 275;
 
+        noteForwarder.setDaemon(true);
+        noteForwarder.start();
+
+        // journal the session from the first note
+        try {
+            journal = NoteJournal.create(username);
+            journalEvents = journal.openQueue();
+        } catch (IOException e) {
+            System.err.println("Not journalling this session: " + e.getMessage());
+        }
+
         // create and show the GUI (in the event-dispatching thread)
         SwingUtilities.invokeLater(() -> {
             JPanel panel = null;
@@ -118,18 +202,52 @@ public class Keyboard_fp {
             frame.setDefaultCloseOperation(WindowConstants.EXIT_ON_CLOSE);
             ImageIcon img = new ImageIcon("musiclogo.png");
             frame.setIconImage(img.getImage());
+            frame.setGlassPane(diagnostics);
             
             jButton2 = new javax.swing.JButton();
             jButton2.setFont(new java.awt.Font("Monotype Corsiva",3,18));
             jButton2.setText("Go back");
             jButton2.addMouseListener(new java.awt.event.MouseAdapter() {
                 public void mouseClicked(java.awt.event.MouseEvent evt) {
+                    stopReplay();
+                    if (replayQueue != null) {
+                        AudioEngine.running().closeQueue(replayQueue);
+                        replayQueue = null;
+                    }
+                    MidiInput.journalDevices(null);
+                    MidiInput.setListener(null);
+                    if (journal != null) {
+                        journal.close();
+                    }
+                    stopForwarding();
                     frame.dispose();
                     new Levels(username).setVisible(true);
                 }
             });
             jButton2.setFocusable(false);
             panel1.add(jButton2, new org.netbeans.lib.awtextra.AbsoluteConstraints(10, 30, -1, -1));
+
+            jButton3 = new javax.swing.JButton();
+            jButton3.setFont(new java.awt.Font("Monotype Corsiva",3,18));
+            jButton3.setText("Audio");
+            jButton3.setFocusable(false);
+            jButton3.addActionListener(new java.awt.event.ActionListener() {
+                public void actionPerformed(java.awt.event.ActionEvent evt) {
+                    new AudioSettingsDialog(frame, AudioEngine.running()).setVisible(true);
+                }
+            });
+            panel1.add(jButton3, new org.netbeans.lib.awtextra.AbsoluteConstraints(10, 70, -1, -1));
+
+            jButton4 = new javax.swing.JButton();
+            jButton4.setFont(new java.awt.Font("Monotype Corsiva",3,18));
+            jButton4.setText("Replay");
+            jButton4.setFocusable(false);
+            jButton4.addActionListener(new java.awt.event.ActionListener() {
+                public void actionPerformed(java.awt.event.ActionEvent evt) {
+                    chooseReplay();
+                }
+            });
+            panel1.add(jButton4, new org.netbeans.lib.awtextra.AbsoluteConstraints(10, 110, -1, -1));
             frame.add(panel, BorderLayout.SOUTH);
             frame.add(panel1, BorderLayout.NORTH);
             panel.setFocusable(true);
@@ -139,20 +257,169 @@ public class Keyboard_fp {
         });
     }
 
-    public char nextKeyPlayed() {
-        synchronized (keyLock) {
-            if (keysTyped.isEmpty()) {
-                throw new NoSuchElementException(
-                        "All typed keys have been processed");
+    // ask for a journal and a speed, then play it back
+    private void chooseReplay() {
+        JFileChooser chooser = new JFileChooser(NoteJournal.DIRECTORY);
+        chooser.setFileFilter(new FileNameExtensionFilter("MeloKeys journals", "mkj"));
+        if (chooser.showOpenDialog(frame) != JFileChooser.APPROVE_OPTION) return;
+        Object[] speeds = { "1x", "2x", "4x" };
+        Object speed = JOptionPane.showInputDialog(frame, "Playback speed", "Replay",
+                JOptionPane.QUESTION_MESSAGE, null, speeds, speeds[0]);
+        if (speed == null) return;
+        try {
+            replay(chooser.getSelectedFile(), Integer.parseInt(speed.toString().replace("x", "")));
+        } catch (IOException | LineUnavailableException e) {
+            JOptionPane.showMessageDialog(frame, "Cannot replay: " + e.getMessage(), "Replay", JOptionPane.ERROR_MESSAGE);
+        }
+    }
+
+    // play a journal through this keyboard (sound and keys) at 1x or faster
+    public void replay(File journalFile, double speed) throws IOException, LineUnavailableException {
+        NoteSequence sequence = NoteJournal.read(journalFile);
+        stopReplay();
+        if (replayQueue == null) {
+            replayQueue = AudioEngine.get().openQueue();
+        }
+        replayer = new JournalReplayer(sequence, replayQueue, speed, this::showReplayed);
+        replayer.start();
+    }
+
+    public void stopReplay() {
+        if (replayer == null) return;
+        try {
+            replayer.stop();
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+        }
+        replayer = null;
+    }
+
+    // forwarder thread: turn the played events into PlayedNotes for the
+    // publisher, and close it once stopped
+    private void forwardNotes() {
+        int[] events = new int[PLAYED_EVENTS_CAPACITY];
+        long[] times = new long[PLAYED_EVENTS_CAPACITY];
+        while (true) {
+            // read before draining, so notes played before the stop are kept
+            boolean last = !forwarding;
+            int count = forward(playedEvents, events, times) + forward(midiPlayedEvents, events, times);
+            if (last) break;
+            if (count == 0) {
+                LockSupport.park(this);
             }
-            return keysTyped.removeLast();
         }
+        notePublisher.close();
     }
 
-    public boolean hasNextKeyPlayed() {
-        synchronized (keyLock) {
-            return !keysTyped.isEmpty();
+    private int forward(NoteEventQueue queue, int[] events, long[] times) {
+        int count = queue.drain(events, times);
+        for (int i = 0; i < count; i++) {
+            notePublisher.offer(new PlayedNote(events[i], times[i]), countDropped);
+        }
+        return count;
+    }
+
+    // publish a note played on the EDT
+    private void publishNote(int event, long time) {
+        if (!playedEvents.offer(event, time)) {
+            notesDropped.incrementAndGet();
+        }
+        LockSupport.unpark(noteForwarder);
+    }
+
+    private void stopForwarding() {
+        forwarding = false;
+        LockSupport.unpark(noteForwarder);
+    }
+
+    // a note from a MIDI input (on its transmitter thread), shown and
+    // published like a key press; the input has already posted it to the
+    // engine and the journal
+    private void midiPlayed(int event, long time) {
+        int note = NoteEventQueue.note(event);
+        switch (NoteEventQueue.type(event)) {
+            case NoteEventQueue.NOTE_ON -> {
+                keysPlayed.add(note, time);
+                keysDown.set(note);
+            }
+            case NoteEventQueue.NOTE_OFF -> keysDown.clear(note);
+            default -> {
+                return;
+            }
         }
+        synchronized (midiPlayedEvents) {
+            if (!midiPlayedEvents.offer(event, time)) {
+                notesDropped.incrementAndGet();
+            }
+        }
+        LockSupport.unpark(noteForwarder);
+        if (frame != null) {
+            frame.repaint();
+        }
+    }
+
+    // journal an event played on the EDT
+    private void journalEvent(int event, long time) {
+        if (journal != null) {
+            journal.record(journalEvents, event, time);
+        }
+    }
+
+    // called on the replay thread for every event played back
+    private void showReplayed(int event) {
+        int note = NoteEventQueue.note(event);
+        switch (NoteEventQueue.type(event)) {
+            case NoteEventQueue.NOTE_ON -> keysDown.set(note);
+            case NoteEventQueue.NOTE_OFF -> keysDown.clear(note);
+            default -> {
+                return;
+            }
+        }
+        if (frame != null) {
+            frame.repaint();
+        }
+    }
+
+    private static int sustainKey() {
+        KeyStroke key = KeyStroke.getKeyStroke(System.getProperty("melokeys.sustainKey", "SPACE"));
+        return key != null ? key.getKeyCode() : KeyEvent.VK_SPACE;
+    }
+
+    // label of the oldest key played and not yet processed
+    public char nextKeyPlayed() {
+        if (keysPlayed.isEmpty()) {
+            throw new NoSuchElementException(
+                    "All typed keys have been processed");
+        }
+        return layout.label(keysPlayed.remove() - firstNote);
+    }
+
+    public boolean hasNextKeyPlayed() {
+        return !keysPlayed.isEmpty();
+    }
+
+    // label of the oldest key played and not yet processed, waiting up to
+    // the timeout for one; NO_KEY_PLAYED if none came
+    public char awaitNextKeyPlayed(long timeout, TimeUnit unit) throws InterruptedException {
+        int note = keysPlayed.poll(unit.toNanos(timeout));
+        return note < 0 ? NO_KEY_PLAYED : layout.label(note - firstNote);
+    }
+
+    // notes played on this keyboard as they happen, for scoring, recording
+    // or display; completes when the keyboard is closed
+    public Flow.Publisher<PlayedNote> notes() {
+        return notePublisher;
+    }
+
+    // notes a slow subscriber missed, or that the forwarder fell behind on
+    public long notesDropped() {
+        return notesDropped.get();
+    }
+
+    // take up to notes.length of the notes played (0 = C3) and their
+    // System.nanoTime() times, oldest first; returns how many were taken
+    public int drainTo(int[] notes, long[] times) {
+        return keysPlayed.drainTo(notes, times);
     }
     private class TextBox extends javax.swing.JPanel {
     /**
@@ -198,83 +465,24 @@ public class Keyboard_fp {
     // the JPanel for drawing the keyboard
     private class KeyboardPanel extends JPanel implements KeyListener {
 
-        String c3file = "Octave 3/Piano.ff.C3.aiff";
-        String db3file = "Octave 3/Piano.ff.Db3.aiff";
-        String d3file = "Octave 3/Piano.ff.D3.aiff";
-        String eb3file = "Octave 3/Piano.ff.Eb3.aiff";
-        String e3file = "Octave 3/Piano.ff.E3.aiff";
-        String f3file = "Octave 3/Piano.ff.F3.aiff";
-        String gb3file = "Octave 3/Piano.ff.Gb3.aiff";
-        String g3file = "Octave 3/Piano.ff.G3.aiff";
-        String ab3file = "Octave 3/Piano.ff.Ab3.aiff";
-        String a3file = "Octave 3/Piano.ff.A3.aiff";
-        String bb3file = "Octave 3/Piano.ff.Bb3.aiff";
-        String b3file = "Octave 3/Piano.ff.B3.aiff";
-        String c4file = "Octave 4/Piano.ff.C4.aiff";
-        String db4file = "Octave 4/Piano.ff.Db4.aiff";
-        String d4file = "Octave 4/Piano.ff.D4.aiff";
-        String eb4file = "Octave 4/Piano.ff.Eb4.aiff";
-        String e4file = "Octave 4/Piano.ff.E4.aiff";
-        String f4file = "Octave 4/Piano.ff.F4.aiff";
-        String gb4file = "Octave 4/Piano.ff.Gb4.aiff";
-        String g4file = "Octave 4/Piano.ff.G4.aiff";
-        String ab4file = "Octave 4/Piano.ff.Ab4.aiff";
-        String a4file = "Octave 4/Piano.ff.A4.aiff";
-        String bb4file = "Octave 4/Piano.ff.Bb4.aiff";
-        String b4file = "Octave 4/Piano.ff.B4.aiff";
-        String c5file = "Octave 5/Piano.ff.C5.aiff";
-        String db5file = "Octave 5/Piano.ff.Db5.aiff";
-        String d5file = "Octave 5/Piano.ff.D5.aiff";
-        String eb5file = "Octave 5/Piano.ff.Eb5.aiff";
-        String e5file = "Octave 5/Piano.ff.E5.aiff";
-        String f5file = "Octave 5/Piano.ff.F5.aiff";
-        String gb5file = "Octave 5/Piano.ff.Gb5.aiff";
-        String g5file = "Octave 5/Piano.ff.G5.aiff";
-        String ab5file = "Octave 5/Piano.ff.Ab5.aiff";
-        String a5file = "Octave 5/Piano.ff.A5.aiff";
-        String bb5file = "Octave 5/Piano.ff.Bb5.aiff";
-        String b5file = "Octave 5/Piano.ff.B5.aiff";
-        SimpleAudioPlayer c3audio = new SimpleAudioPlayer(c3file);
-        SimpleAudioPlayer db3audio = new SimpleAudioPlayer(db3file);
-        SimpleAudioPlayer d3audio = new SimpleAudioPlayer(d3file);
-        SimpleAudioPlayer eb3audio = new SimpleAudioPlayer(eb3file);
-        SimpleAudioPlayer e3audio = new SimpleAudioPlayer(e3file);
-        SimpleAudioPlayer f3audio = new SimpleAudioPlayer(f3file);
-        SimpleAudioPlayer gb3audio = new SimpleAudioPlayer(gb3file);
-        SimpleAudioPlayer g3audio = new SimpleAudioPlayer(g3file);
-        SimpleAudioPlayer ab3audio = new SimpleAudioPlayer(ab3file);
-        SimpleAudioPlayer a3audio = new SimpleAudioPlayer(a3file);
-        SimpleAudioPlayer bb3audio = new SimpleAudioPlayer(bb3file);
-        SimpleAudioPlayer b3audio = new SimpleAudioPlayer(b3file);
-        SimpleAudioPlayer c4audio = new SimpleAudioPlayer(c4file);
-        SimpleAudioPlayer db4audio = new SimpleAudioPlayer(db4file);
-        SimpleAudioPlayer d4audio = new SimpleAudioPlayer(d4file);
-        SimpleAudioPlayer eb4audio = new SimpleAudioPlayer(eb4file);
-        SimpleAudioPlayer e4audio = new SimpleAudioPlayer(e4file);
-        SimpleAudioPlayer f4audio = new SimpleAudioPlayer(f4file);
-        SimpleAudioPlayer gb4audio = new SimpleAudioPlayer(gb4file);
-        SimpleAudioPlayer g4audio = new SimpleAudioPlayer(g4file);
-        SimpleAudioPlayer ab4audio = new SimpleAudioPlayer(ab4file);
-        SimpleAudioPlayer a4audio = new SimpleAudioPlayer(a4file);
-        SimpleAudioPlayer bb4audio = new SimpleAudioPlayer(bb4file);
-        SimpleAudioPlayer b4audio = new SimpleAudioPlayer(b4file);
-        SimpleAudioPlayer c5audio = new SimpleAudioPlayer(c5file);
-        SimpleAudioPlayer db5audio = new SimpleAudioPlayer(db5file);
-        SimpleAudioPlayer d5audio = new SimpleAudioPlayer(d5file);
-        SimpleAudioPlayer eb5audio = new SimpleAudioPlayer(eb5file);
-        SimpleAudioPlayer e5audio = new SimpleAudioPlayer(e5file);
-        SimpleAudioPlayer f5audio = new SimpleAudioPlayer(f5file);
-        SimpleAudioPlayer gb5audio = new SimpleAudioPlayer(gb5file);
-        SimpleAudioPlayer g5audio = new SimpleAudioPlayer(g5file);
-        SimpleAudioPlayer ab5audio = new SimpleAudioPlayer(ab5file);
-        SimpleAudioPlayer a5audio = new SimpleAudioPlayer(a5file);
-        SimpleAudioPlayer bb5audio = new SimpleAudioPlayer(bb5file);
-        SimpleAudioPlayer b5audio = new SimpleAudioPlayer(b5file);
+        // note events for the shared software mixer (posted from the EDT only)
+        private final NoteEventQueue noteEvents = AudioEngine.get().swingQueue();
+
+        // velocity of notes played on the computer keyboard
+        private static final int KEY_VELOCITY = 127;
 
         public KeyboardPanel() throws UnsupportedAudioFileException, LineUnavailableException, IOException {
             setBackground(Color.WHITE);
-            addKeyListener(this);
+            // held keys give one press and one release, whatever the OS repeat does
+            KeyRepeatFilter repeatFilter = new KeyRepeatFilter(this);
+            addKeyListener(repeatFilter);
+            // and keys held when the focus goes elsewhere are released
+            addFocusListener(repeatFilter);
             setFocusable(true);
+            // MIDI keyboards play alongside the computer keyboard, into the same journal
+            MidiInput.connectDevices(AudioEngine.get());
+            MidiInput.journalDevices(journal);
+            MidiInput.setListener(Keyboard_fp.this::midiPlayed);
         }
 
         // draw the keyboard
@@ -287,11 +495,14 @@ public class Keyboard_fp {
             double width = size.getWidth();
             double height = size.getHeight();
 
+            // one consistent view of the pressed notes for the whole frame
+            long down = keysDown.snapshot();
+
             // first, draw the white keys
             for (Key whiteKey : whiteKeys) {
 
                 // key typed
-                if (keysDown.contains(whiteKey.getKeyStroke())) {
+                if (NoteBitSet.contains(down, whiteKey.getNote())) {
                     whiteKey.draw(g, width, height, Color.GREEN, Color.WHITE);
                 }
                 // drawn as usual
@@ -304,7 +515,7 @@ public class Keyboard_fp {
             for (Key blackKey : blackKeys) {
 
                 // key typed
-                if (keysDown.contains(blackKey.getKeyStroke())) {
+                if (NoteBitSet.contains(down, blackKey.getNote())) {
                     blackKey.draw(g, width, height, Color.GREEN, Color.WHITE);
                 }
 
@@ -318,103 +529,58 @@ public class Keyboard_fp {
         // Keyboard Methods
 
         public void keyTyped(KeyEvent e) {
-            synchronized (keyLock) {
-                char c = e.getKeyChar();
-                keysTyped.addFirst(c);
-            }
+            // notes are recorded in keyPressed, with their time
         }
 
         public void keyPressed(KeyEvent e) {
-            synchronized (keyLock) {
-                char c = e.getKeyChar();
-                keysDown.add(c);
+            long input = System.nanoTime();
+            if (e.getKeyCode() == KeyEvent.VK_F12) {
+                diagnostics.toggle();
+                return;
+            }
+            if (e.getKeyCode() == SUSTAIN_KEY) {
+                noteEvents.offer(NoteEventQueue.sustain(true), input);
+                journalEvent(NoteEventQueue.sustain(true), input);
+                return;
+            }
+            int note = noteForKey(e);
+            if (note >= 0) {
+                int event = NoteEventQueue.noteOn(note, KEY_VELOCITY);
+                noteEvents.offer(event, input);
+                LatencyStats.ENQUEUE.record(System.nanoTime() - input);
+                keysPlayed.add(note, input);
+                journalEvent(event, input);
+                publishNote(event, input);
+                keysDown.set(note);
                 repaint();
-                switch (c) {
-                    case 'z' -> c3audio.play();
-                    case 's' -> db3audio.play();
-                    case 'x' -> d3audio.play();
-                    case 'd' -> eb3audio.play();
-                    case 'c' -> e3audio.play();
-                    case 'v' -> f3audio.play();
-                    case 'g' -> gb3audio.play();
-                    case 'b' -> g3audio.play();
-                    case 'h' -> ab3audio.play();
-                    case 'n' -> a3audio.play();
-                    case 'j' -> bb3audio.play();
-                    case 'm' -> b3audio.play();
-                    case ',' -> c4audio.play();
-                    case 'l' -> db4audio.play();
-                    case '.' -> d4audio.play();
-                    case ';' -> eb4audio.play();
-                    case '/' -> e4audio.play();
-                    case 'q' -> f4audio.play();
-                    case '2' -> gb4audio.play();
-                    case 'w' -> g4audio.play();
-                    case '3' -> ab4audio.play();
-                    case 'e' -> a4audio.play();
-                    case '4' -> bb4audio.play();
-                    case 'r' -> b4audio.play();
-                    case 't' -> c5audio.play();
-                    case '6' -> db5audio.play();
-                    case 'y' -> d5audio.play();
-                    case '7' -> eb5audio.play();
-                    case 'u' -> e5audio.play();
-                    case 'i' -> f5audio.play();
-                    case '9' -> gb5audio.play();
-                    case 'o' -> g5audio.play();
-                    case '0' -> ab5audio.play();
-                    case 'p' -> a5audio.play();
-                    case '-' -> bb5audio.play();
-                    case '[' -> b5audio.play();
-                }
             }
         }
 
         public void keyReleased(KeyEvent e) {
-            synchronized (keyLock) {
-                char c = e.getKeyChar();
-                keysDown.remove(c);
+            if (e.getKeyCode() == SUSTAIN_KEY) {
+                long input = System.nanoTime();
+                noteEvents.offer(NoteEventQueue.sustain(false), input);
+                journalEvent(NoteEventQueue.sustain(false), input);
+                return;
+            }
+            int note = noteForKey(e);
+            if (note >= 0) {
+                int event = NoteEventQueue.noteOff(note);
+                long input = System.nanoTime();
+                noteEvents.offer(event, input);
+                journalEvent(event, input);
+                publishNote(event, input);
+                keysDown.clear(note);
                 repaint();
-                switch (c) {
-                    case 'z' -> c3audio.pause();
-                    case 's' -> db3audio.pause();
-                    case 'x' -> d3audio.pause();
-                    case 'd' -> eb3audio.pause();
-                    case 'c' -> e3audio.pause();
-                    case 'v' -> f3audio.pause();
-                    case 'g' -> gb3audio.pause();
-                    case 'b' -> g3audio.pause();
-                    case 'h' -> ab3audio.pause();
-                    case 'n' -> a3audio.pause();
-                    case 'j' -> bb3audio.pause();
-                    case 'm' -> b3audio.pause();
-                    case ',' -> c4audio.pause();
-                    case 'l' -> db4audio.pause();
-                    case '.' -> d4audio.pause();
-                    case ';' -> eb4audio.pause();
-                    case '/' -> e4audio.pause();
-                    case 'q' -> f4audio.pause();
-                    case '2' -> gb4audio.pause();
-                    case 'w' -> g4audio.pause();
-                    case '3' -> ab4audio.pause();
-                    case 'e' -> a4audio.pause();
-                    case '4' -> bb4audio.pause();
-                    case 'r' -> b4audio.pause();
-                    case 't' -> c5audio.pause();
-                    case '6' -> db5audio.pause();
-                    case 'y' -> d5audio.pause();
-                    case '7' -> eb5audio.pause();
-                    case 'u' -> e5audio.pause();
-                    case 'i' -> f5audio.pause();
-                    case '9' -> gb5audio.pause();
-                    case 'o' -> g5audio.pause();
-                    case '0' -> ab5audio.pause();
-                    case 'p' -> a5audio.pause();
-                    case '-' -> bb5audio.pause();
-                    case '[' -> b5audio.pause();
-                }
             }
         }
+
+        // piano note (0 = C3 ... 35 = B5) played by a key, -1 if none; the
+        // layout is indexed by key code, so Shift and Caps Lock do not matter
+        private int noteForKey(KeyEvent e) {
+            int index = layout.index(e);
+            return index < 0 ? -1 : firstNote + index;
+        }
     }
 
 
@@ -427,15 +593,17 @@ public class Keyboard_fp {
         private final String name;        // key name (e.g., C)
         private final boolean isBlack;    // is it a black key?
         private final char keyStroke;     // keyboard keystroke that correspond to piano key
+        private final int note;           // note number (0 = C3 ... 35 = B5)
 
         // rectangle for key
         // (coordinate system is scaled so that white keys have width and height 1.0)
         private final double xmin, xmax, ymin, ymax;
 
 
-        public Key(double x, String name, char keyStroke, boolean isBlack) {
+        public Key(double x, String name, char keyStroke, int note, boolean isBlack) {
             this.name = name;
             this.keyStroke = keyStroke;
+            this.note = note;
             this.isBlack = isBlack;
 
             if (!isBlack) {
@@ -503,6 +671,10 @@ public class Keyboard_fp {
             return keyStroke;
         }
 
+        private int getNote() {
+            return note;
+        }
+
         // does the rectangle contain the given (x, y)
         private boolean contains(double x, double y) {
             return x >= xmin && x < xmax && y >= ymin && y < ymax;
@@ -0,0 +1,69 @@
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.AtomicLongArray;
+
+/*
+ * Fixed-bucket histogram of latencies in nanoseconds.
+ *
+ * Recording is a couple of atomic increments with no allocation, so it can be
+ * used on the EDT and on the audio render thread. Buckets are 50 us wide up
+ * to 200 ms; anything slower lands in the last bucket (max stays exact).
+ */
+final class LatencyHistogram {
+
+    private static final long BUCKET_NANOS = 50_000;
+    private static final int BUCKETS = 4000;
+
+    private final String name;
+    private final AtomicLongArray counts = new AtomicLongArray(BUCKETS);
+    private final AtomicLong total = new AtomicLong();
+    private final AtomicLong max = new AtomicLong();
+
+    LatencyHistogram(String name) {
+        this.name = name;
+    }
+
+    String name() {
+        return name;
+    }
+
+    void record(long nanos) {
+        if (nanos < 0) nanos = 0;
+        counts.incrementAndGet((int) Math.min(BUCKETS - 1, nanos / BUCKET_NANOS));
+        total.incrementAndGet();
+        long m = max.get();
+        while (nanos > m && !max.compareAndSet(m, nanos)) {
+            m = max.get();
+        }
+    }
+
+    long count() {
+        return total.get();
+    }
+
+    long maxNanos() {
+        return max.get();
+    }
+
+    // upper edge of the bucket holding the given fraction (0..1) of samples
+    long percentileNanos(double fraction) {
+        long n = total.get();
+        if (n == 0) return 0;
+        long rank = (long) Math.ceil(fraction * n);
+        long seen = 0;
+        for (int i = 0; i < BUCKETS; i++) {
+            seen += counts.get(i);
+            if (seen >= rank) {
+                return Math.min((i + 1) * BUCKET_NANOS, max.get());
+            }
+        }
+        return max.get();
+    }
+
+    void reset() {
+        for (int i = 0; i < BUCKETS; i++) {
+            counts.set(i, 0);
+        }
+        total.set(0);
+        max.set(0);
+    }
+}
@@ -0,0 +1,27 @@
+/*
+ * Key-to-audio latency, measured from the moment a KeyEvent reaches
+ * KeyboardPanel.keyPressed (System.nanoTime()) to each later stage of the
+ * note path.
+ */
+final class LatencyStats {
+
+    // event handed to the audio queue (recorded on the EDT)
+    static final LatencyHistogram ENQUEUE = new LatencyHistogram("input -> enqueue");
+
+    // voice started by the render thread
+    static final LatencyHistogram VOICE_START = new LatencyHistogram("input -> voice start");
+
+    // first block containing the note written to the output line
+    static final LatencyHistogram BUFFER_WRITE = new LatencyHistogram("input -> buffer write");
+
+    static final LatencyHistogram[] ALL = { ENQUEUE, VOICE_START, BUFFER_WRITE };
+
+    private LatencyStats() {
+    }
+
+    static void reset() {
+        for (LatencyHistogram histogram : ALL) {
+            histogram.reset();
+        }
+    }
+}
@@ -0,0 +1,137 @@
+/*
+ * Metronome voice mixed in by the VoiceMixer. Beats fall on exact frame
+ * positions: beat n is at round(n * framesPerBeat) from where the current
+ * tempo started, so the click never drifts against the notes however long it
+ * runs. The two clicks (accented downbeat and normal beat) are computed once
+ * in the constructor.
+ *
+ * Settings are volatile and can be changed from any thread, the render
+ * thread picks them up at its next block. When off, mix returns straight
+ * away.
+ */
+final class Metronome {
+
+    static final int DEFAULT_BPM = 100;
+
+    private static final int CLICK_FRAMES = (int) (SampleBank.SAMPLE_RATE * 0.03f);
+
+    private final float[] accent = click(1760, 12000f);
+    private final float[] beat = click(1320, 8000f);
+
+    private volatile boolean enabled;
+    private volatile int bpm = DEFAULT_BPM;
+    private volatile int beatsPerBar = 4;
+    private volatile int beatUnit = 4;
+
+    // render thread only
+    private boolean running;
+    private long position;          // frames mixed since the metronome was switched on
+    private double framesPerBeat;
+    private long anchorFrame;       // where the current tempo started
+    private long anchorBeat;
+    private long beatCount;         // beats scheduled so far
+    private long nextBeatFrame;
+    private int barBeat;
+    private float[] click;          // click playing, null if none
+    private int clickPosition;
+
+    // a short decaying sine
+    private static float[] click(double frequency, float amplitude) {
+        float[] click = new float[CLICK_FRAMES];
+        for (int i = 0; i < click.length; i++) {
+            double t = i / (double) SampleBank.SAMPLE_RATE;
+            click[i] = (float) (amplitude * Math.sin(2 * Math.PI * frequency * t) * Math.exp(-t * 150));
+        }
+        return click;
+    }
+
+    void setEnabled(boolean enabled) {
+        this.enabled = enabled;
+    }
+
+    boolean isEnabled() {
+        return enabled;
+    }
+
+    // tempo in quarter notes per minute, 20 to 400
+    void setBpm(int bpm) {
+        this.bpm = Math.max(20, Math.min(400, bpm));
+    }
+
+    int getBpm() {
+        return bpm;
+    }
+
+    // time signature, e.g. 3/4 or 6/8; the click is on every beatUnit note
+    void setTimeSignature(int beatsPerBar, int beatUnit) {
+        if (beatsPerBar < 1 || beatsPerBar > 16 || Integer.bitCount(beatUnit) != 1 || beatUnit > 16) {
+            throw new IllegalArgumentException("bad time signature " + beatsPerBar + "/" + beatUnit);
+        }
+        this.beatsPerBar = beatsPerBar;
+        this.beatUnit = beatUnit;
+    }
+
+    int getBeatsPerBar() {
+        return beatsPerBar;
+    }
+
+    int getBeatUnit() {
+        return beatUnit;
+    }
+
+    // add the clicks falling in the next frames frames to an interleaved stereo block
+    void mix(float[] block, int frames) {
+        if (!enabled) {
+            running = false;
+            return;
+        }
+        double perBeat = 60.0 * SampleBank.SAMPLE_RATE / bpm * 4 / beatUnit;
+        if (!running) {
+            // the first beat is at the start of this block
+            running = true;
+            position = 0;
+            anchorFrame = 0;
+            anchorBeat = 0;
+            beatCount = 0;
+            nextBeatFrame = 0;
+            barBeat = 0;
+            click = null;
+            framesPerBeat = perBeat;
+        } else if (perBeat != framesPerBeat) {
+            // the new tempo starts from the next beat already scheduled
+            framesPerBeat = perBeat;
+            anchorFrame = nextBeatFrame;
+            anchorBeat = beatCount;
+        }
+        int f = 0;
+        while (f < frames) {
+            long beatOffset = nextBeatFrame - position;
+            int until = beatOffset < frames ? (int) beatOffset : frames;
+            playClick(block, f, until);
+            f = until;
+            if (until < frames) {
+                click = barBeat == 0 ? accent : beat;
+                clickPosition = 0;
+                barBeat = (barBeat + 1) % beatsPerBar;
+                beatCount++;
+                nextBeatFrame = anchorFrame + Math.round((beatCount - anchorBeat) * framesPerBeat);
+            }
+        }
+        position += frames;
+    }
+
+    // the rest of the current click, between two frames of the block
+    private void playClick(float[] block, int from, int to) {
+        if (click == null) return;
+        int n = Math.min(to - from, click.length - clickPosition);
+        for (int i = 0; i < n; i++) {
+            float s = click[clickPosition + i];
+            block[2 * (from + i)] += s;
+            block[2 * (from + i) + 1] += s;
+        }
+        clickPosition += n;
+        if (clickPosition == click.length) {
+            click = null;
+        }
+    }
+}
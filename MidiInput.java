@@ -0,0 +1,188 @@
+import javax.sound.midi.MidiDevice;
+import javax.sound.midi.MidiEvent;
+import javax.sound.midi.MidiMessage;
+import javax.sound.midi.MidiSystem;
+import javax.sound.midi.MidiUnavailableException;
+import javax.sound.midi.Receiver;
+import javax.sound.midi.Sequence;
+import javax.sound.midi.Sequencer;
+import javax.sound.midi.ShortMessage;
+import javax.sound.midi.Track;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.logging.Level;
+import java.util.logging.Logger;
+
+/*
+ * MIDI keyboard input. A MidiInput is a Receiver that turns note on/off
+ * (with velocity) and the sustain pedal controller into NoteEventQueue
+ * events on its own engine queue, so MIDI notes go straight to the render
+ * thread without passing through the EDT. MIDI note 48 (C3) is the lowest
+ * sample, notes outside the 36 sampled ones are ignored. The same events go
+ * to the keyboard's NoteJournal, if one is set, and to the keyboard's
+ * listener, which shows and publishes them like computer key presses.
+ *
+ * Any Transmitter can drive it, hardware or not: connectDevices attaches one
+ * to every MIDI input device, and main plays a few notes through the
+ * software sequencer.
+ */
+class MidiInput implements Receiver {
+
+    // MIDI note number of sample 0 (C3)
+    static final int FIRST_NOTE = 48;
+
+    private static final int SUSTAIN_CONTROLLER = 64;
+
+    private static final Logger LOG = Logger.getLogger(MidiInput.class.getName());
+
+    // devices opened by connectDevices, and the inputs attached to them
+    private static List<MidiDevice> devices;
+    private static final List<MidiInput> inputs = new ArrayList<>();
+
+    // told about every event played on any MIDI input, null if nobody is
+    private static volatile Listener listener;
+
+    private final NoteEventQueue events;
+    private volatile boolean closed;
+    private long dropped;
+
+    // where played events are journalled, and this input's queue there
+    private NoteJournal journal;
+    private NoteEventQueue journalEvents;
+
+    MidiInput(AudioEngine engine) {
+        this.events = engine.openQueue();
+    }
+
+    // attach a MidiInput to every MIDI device that can transmit (once, later
+    // calls return the devices already open)
+    static synchronized List<MidiDevice> connectDevices(AudioEngine engine) {
+        if (devices != null) {
+            return devices;
+        }
+        devices = new ArrayList<>();
+        for (MidiDevice.Info info : MidiSystem.getMidiDeviceInfo()) {
+            try {
+                MidiDevice device = MidiSystem.getMidiDevice(info);
+                // sequencers and synthesizers are not keyboards
+                if (device instanceof Sequencer || device.getMaxTransmitters() == 0) continue;
+                device.open();
+                MidiInput input = new MidiInput(engine);
+                device.getTransmitter().setReceiver(input);
+                devices.add(device);
+                inputs.add(input);
+                LOG.info("MIDI input: " + info.getName());
+            } catch (MidiUnavailableException e) {
+                LOG.log(Level.WARNING, "Cannot open MIDI device " + info.getName(), e);
+            }
+        }
+        return devices;
+    }
+
+    // journal what every connected device plays (null to stop)
+    static synchronized void journalDevices(NoteJournal journal) {
+        for (MidiInput input : inputs) {
+            input.setJournal(journal);
+        }
+    }
+
+    // the keyboard window that shows what MIDI inputs play (null for none)
+    static void setListener(Listener listener) {
+        MidiInput.listener = listener;
+    }
+
+    // journal what this input plays (null to stop)
+    synchronized void setJournal(NoteJournal journal) {
+        if (journal != this.journal) {
+            this.journal = journal;
+            journalEvents = journal == null ? null : journal.openQueue();
+        }
+    }
+
+    // called on the transmitter's thread; synchronized because the queue
+    // takes one producer at a time and some transmitters use several threads
+    @Override
+    public synchronized void send(MidiMessage message, long timeStamp) {
+        if (closed || !(message instanceof ShortMessage)) return;
+        long now = System.nanoTime();
+        ShortMessage m = (ShortMessage) message;
+        int event;
+        switch (m.getCommand()) {
+            case ShortMessage.NOTE_ON, ShortMessage.NOTE_OFF -> {
+                int note = m.getData1() - FIRST_NOTE;
+                if (note < 0 || note >= SampleBank.NOTE_COUNT) return;
+                // a note on with velocity 0 is a note off
+                event = m.getCommand() == ShortMessage.NOTE_ON && m.getData2() > 0
+                        ? NoteEventQueue.noteOn(note, m.getData2())
+                        : NoteEventQueue.noteOff(note);
+            }
+            case ShortMessage.CONTROL_CHANGE -> {
+                if (m.getData1() != SUSTAIN_CONTROLLER) return;
+                event = NoteEventQueue.sustain(m.getData2() >= 64);
+            }
+            default -> {
+                return;
+            }
+        }
+        if (!events.offer(event, now)) {
+            dropped++;
+        }
+        if (journal != null) {
+            journal.record(journalEvents, event, now);
+        }
+        Listener listener = MidiInput.listener;
+        if (listener != null) {
+            listener.played(event, now);
+        }
+    }
+
+    // events lost because the render thread fell behind
+    synchronized long dropped() {
+        return dropped;
+    }
+
+    // receives MIDI events on the transmitter's thread, possibly from several
+    // inputs at once
+    interface Listener {
+        void played(int event, long time);
+    }
+
+    @Override
+    public void close() {
+        closed = true;
+    }
+
+    // play a C major arpeggio through the software sequencer, no MIDI hardware
+    // needed; exits with status 1 unless every note started a voice
+    public static void main(String[] args) throws Exception {
+        AudioEngine engine = AudioEngine.get();
+        SampleBank.get().awaitLoaded();
+        Sequence sequence = new Sequence(Sequence.PPQ, 480);
+        Track track = sequence.createTrack();
+        int[] notes = { 60, 64, 67, 72 };
+        for (int i = 0; i < notes.length; i++) {
+            track.add(new MidiEvent(new ShortMessage(ShortMessage.NOTE_ON, 0, notes[i], 100), i * 480L));
+            track.add(new MidiEvent(new ShortMessage(ShortMessage.NOTE_OFF, 0, notes[i], 0), i * 480L + 400));
+        }
+        Sequencer sequencer = MidiSystem.getSequencer(false);
+        sequencer.open();
+        MidiInput input = new MidiInput(engine);
+        sequencer.getTransmitter().setReceiver(input);
+        long started = LatencyStats.VOICE_START.count();
+        sequencer.setSequence(sequence);
+        sequencer.start();
+        while (sequencer.isRunning()) {
+            Thread.sleep(50);
+        }
+        Thread.sleep(500);
+        sequencer.close();
+        System.out.printf("voice start latency p50 %.2f ms over %d notes%n",
+                LatencyStats.VOICE_START.percentileNanos(0.5) / 1e6, LatencyStats.VOICE_START.count());
+        long voices = LatencyStats.VOICE_START.count() - started;
+        if (voices != notes.length || input.dropped() != 0) {
+            System.err.printf("expected %d voices and no drops, got %d voices and %d dropped%n",
+                    notes.length, voices, input.dropped());
+            System.exit(1);
+        }
+    }
+}
@@ -0,0 +1,33 @@
+import java.nio.ByteBuffer;
+
+/*
+ * Inner loop of the mixer: adds one voice's samples, scaled by its gain, into
+ * the block being mixed.
+ *
+ * There are two implementations: VectorMixKernel uses the incubating Vector
+ * API (jdk.incubator.vector) to process several samples per instruction, and
+ * ScalarMixKernel is the plain loop used when that module is not available.
+ */
+interface MixKernel {
+
+    int CHANNELS = SampleBank.CHANNELS;
+
+    // for each of the frames starting at interleaved sample index offset:
+    //   mix[f * CHANNELS + c] += sample[offset + f * CHANNELS + c] * max(0, gain - step * f)
+    // sample holds 16 bit little-endian values; step is 0 for held notes and
+    // the per-frame fade for released ones
+    void accumulate(float[] mix, ByteBuffer sample, int offset, int frames, float gain, float step);
+
+    // Vector API kernel if the JVM was started with
+    // --add-modules jdk.incubator.vector (and -Dmelokeys.simd is not false)
+    static MixKernel best() {
+        if (Boolean.parseBoolean(System.getProperty("melokeys.simd", "true"))) {
+            try {
+                return (MixKernel) Class.forName("VectorMixKernel").getDeclaredConstructor().newInstance();
+            } catch (ReflectiveOperationException | LinkageError e) {
+                // module not present, use the scalar loop
+            }
+        }
+        return new ScalarMixKernel();
+    }
+}
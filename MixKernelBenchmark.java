@@ -0,0 +1,119 @@
+import java.nio.ByteBuffer;
+import java.util.Arrays;
+import java.util.Random;
+
+/*
+ * Compares the scalar and Vector API mixing kernels at 8, 32 and 128 voices.
+ * Each run mixes blocks of VoiceMixer.BLOCK_FRAMES frames from random
+ * positions in the real samples, half of the voices held and half releasing.
+ * Both kernels are warmed up at every voice count before anything is timed.
+ *
+ * Usage: java --add-modules jdk.incubator.vector MixKernelBenchmark [seconds per run]
+ */
+final class MixKernelBenchmark {
+
+    private static final int[] VOICES = { 8, 32, 128 };
+
+    // blocks mixed by each kernel at each voice count before timing starts
+    private static final int WARMUP_BLOCKS = 20_000;
+
+    private MixKernelBenchmark() {
+    }
+
+    public static void main(String[] args) throws InterruptedException {
+        double seconds = args.length > 0 ? Double.parseDouble(args[0]) : 2;
+        SampleBank bank = SampleBank.get();
+        bank.awaitLoaded();
+
+        MixKernel scalar = new ScalarMixKernel();
+        MixKernel vector = MixKernel.best();
+        if (vector instanceof ScalarMixKernel) {
+            System.out.println("Vector API not available, run with --add-modules jdk.incubator.vector");
+        }
+        System.out.printf("kernels agree within %.4f%n", maxDifference(bank, scalar, vector));
+        for (int voices : VOICES) {
+            warmUp(bank, scalar, voices);
+            warmUp(bank, vector, voices);
+        }
+        System.out.printf("%-8s %-24s %12s %12s%n", "voices", "kernel", "ns/block", "x realtime");
+        for (int voices : VOICES) {
+            double base = run(bank, scalar, voices, seconds);
+            double simd = run(bank, vector, voices, seconds);
+            print(voices, scalar, base);
+            print(voices, vector, simd);
+            System.out.printf("%-8s speedup %.2fx%n", "", base / simd);
+        }
+    }
+
+    private static void print(int voices, MixKernel kernel, double nanosPerBlock) {
+        double blockNanos = VoiceMixer.BLOCK_FRAMES * 1e9 / SampleBank.SAMPLE_RATE;
+        System.out.printf("%-8d %-24s %12.0f %12.1f%n", voices, kernel, nanosPerBlock, blockNanos / nanosPerBlock);
+    }
+
+    // mix WARMUP_BLOCKS blocks untimed, so the kernel is compiled for this
+    // voice count before any run is measured
+    private static void warmUp(SampleBank bank, MixKernel kernel, int voices) {
+        float[] mix = new float[VoiceMixer.BLOCK_FRAMES * MixKernel.CHANNELS];
+        ByteBuffer[] samples = new ByteBuffer[voices];
+        int[] offsets = new int[voices];
+        pickVoices(bank, samples, offsets);
+        for (int i = 0; i < WARMUP_BLOCKS; i++) {
+            mixBlock(kernel, mix, samples, offsets);
+        }
+    }
+
+    // average time to mix one block with the given number of voices
+    private static double run(SampleBank bank, MixKernel kernel, int voices, double seconds) {
+        float[] mix = new float[VoiceMixer.BLOCK_FRAMES * MixKernel.CHANNELS];
+        ByteBuffer[] samples = new ByteBuffer[voices];
+        int[] offsets = new int[voices];
+        pickVoices(bank, samples, offsets);
+        long start = System.nanoTime();
+        long deadline = start + (long) (seconds * 1e9);
+        long blocks = 0;
+        long now;
+        do {
+            mixBlock(kernel, mix, samples, offsets);
+            blocks++;
+            now = System.nanoTime();
+        } while (now < deadline);
+        // reading mix keeps the JIT from dropping the work
+        return mix[0] == Float.MAX_VALUE ? 0 : (now - start) / (double) blocks;
+    }
+
+    // the same random notes and positions for every run with this many voices
+    private static void pickVoices(SampleBank bank, ByteBuffer[] samples, int[] offsets) {
+        Random random = new Random(42);
+        for (int v = 0; v < samples.length; v++) {
+            int note = random.nextInt(SampleBank.NOTE_COUNT);
+            samples[v] = bank.sample(note);
+            offsets[v] = random.nextInt(bank.frames(note) - VoiceMixer.BLOCK_FRAMES) * MixKernel.CHANNELS;
+        }
+    }
+
+    // one block with every voice, half of them held and half releasing; the
+    // mix is cleared first, as VoiceMixer.mix does
+    private static void mixBlock(MixKernel kernel, float[] mix, ByteBuffer[] samples, int[] offsets) {
+        Arrays.fill(mix, 0f);
+        for (int v = 0; v < samples.length; v++) {
+            float step = (v & 1) == 0 ? 0f : 1e-4f;
+            kernel.accumulate(mix, samples[v], offsets[v], VoiceMixer.BLOCK_FRAMES, 0.5f, step);
+        }
+    }
+
+    // largest difference between the two kernels on the same input
+    private static float maxDifference(SampleBank bank, MixKernel a, MixKernel b) {
+        float[] mixA = new float[VoiceMixer.BLOCK_FRAMES * MixKernel.CHANNELS];
+        float[] mixB = new float[mixA.length];
+        ByteBuffer sample = bank.sample(12);
+        a.accumulate(mixA, sample, 1000, VoiceMixer.BLOCK_FRAMES - 3, 0.7f, 0f);
+        b.accumulate(mixB, sample, 1000, VoiceMixer.BLOCK_FRAMES - 3, 0.7f, 0f);
+        a.accumulate(mixA, sample, 5001 * 2, VoiceMixer.BLOCK_FRAMES, 0.9f, 0.003f);
+        b.accumulate(mixB, sample, 5001 * 2, VoiceMixer.BLOCK_FRAMES, 0.9f, 0.003f);
+        float max = 0;
+        for (int i = 0; i < mixA.length; i++) {
+            max = Math.max(max, Math.abs(mixA[i] - mixB[i]));
+        }
+        return max;
+    }
+}
@@ -0,0 +1,68 @@
+import java.util.concurrent.atomic.AtomicLong;
+
+/*
+ * The set of notes currently down, one bit per note (0 = C3 ... 35 = B5) in
+ * a single atomic long. Any thread can update it or read it without a lock:
+ * set and clear are a compare-and-set on one word, and snapshot returns
+ * every note at one instant, so a painter, the audio thread or a scorer all
+ * see a consistent chord.
+ */
+final class NoteBitSet {
+
+    static {
+        if (SampleBank.NOTE_COUNT > Long.SIZE) {
+            throw new AssertionError("NoteBitSet holds at most 64 notes");
+        }
+    }
+
+    private final AtomicLong bits = new AtomicLong();
+
+    // mark a note as down; false if it already was
+    boolean set(int note) {
+        long mask = mask(note);
+        long old;
+        do {
+            old = bits.get();
+        } while (!bits.compareAndSet(old, old | mask));
+        return (old & mask) == 0;
+    }
+
+    // mark a note as up; false if it already was
+    boolean clear(int note) {
+        long mask = mask(note);
+        long old;
+        do {
+            old = bits.get();
+        } while (!bits.compareAndSet(old, old & ~mask));
+        return (old & mask) != 0;
+    }
+
+    boolean get(int note) {
+        return contains(bits.get(), note);
+    }
+
+    // every note at once, test with contains
+    long snapshot() {
+        return bits.get();
+    }
+
+    static boolean contains(long snapshot, int note) {
+        return (snapshot & mask(note)) != 0;
+    }
+
+    // notes down
+    int count() {
+        return Long.bitCount(bits.get());
+    }
+
+    void clearAll() {
+        bits.set(0);
+    }
+
+    private static long mask(int note) {
+        if (note < 0 || note >= SampleBank.NOTE_COUNT) {
+            throw new IndexOutOfBoundsException("note " + note);
+        }
+        return 1L << note;
+    }
+}
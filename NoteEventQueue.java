@@ -0,0 +1,93 @@
+import java.util.concurrent.atomic.AtomicLong;
+
+/*
+ * Lock-free single-producer/single-consumer ring of note events.
+ *
+ * An event is a primitive int (type, note and velocity packed together)
+ * plus a System.nanoTime() timestamp. Exactly one thread may offer events
+ * and exactly one thread may drain them; neither side locks or allocates.
+ */
+final class NoteEventQueue {
+
+    // event types
+    static final int NOTE_ON = 1;
+    static final int NOTE_OFF = 2;
+    static final int SUSTAIN = 3;
+
+    private final int[] events;
+    private final long[] times;
+    private final int mask;
+
+    // next slot to read, only advanced by the consumer
+    private final AtomicLong head = new AtomicLong();
+
+    // next slot to write, only advanced by the producer
+    private final AtomicLong tail = new AtomicLong();
+
+    // capacity is rounded up to a power of two
+    NoteEventQueue(int capacity) {
+        int size = Integer.highestOneBit(Math.max(2, capacity - 1)) << 1;
+        events = new int[size];
+        times = new long[size];
+        mask = size - 1;
+    }
+
+    static int event(int type, int note, int velocity) {
+        return (type << 16) | ((note & 0xff) << 8) | (velocity & 0x7f);
+    }
+
+    static int noteOn(int note, int velocity) {
+        return event(NOTE_ON, note, velocity);
+    }
+
+    static int noteOff(int note) {
+        return event(NOTE_OFF, note, 0);
+    }
+
+    // sustain pedal pressed (velocity 127) or lifted (velocity 0)
+    static int sustain(boolean down) {
+        return event(SUSTAIN, 0, down ? 127 : 0);
+    }
+
+    static int type(int event) {
+        return event >>> 16;
+    }
+
+    static int note(int event) {
+        return (event >>> 8) & 0xff;
+    }
+
+    static int velocity(int event) {
+        return event & 0x7f;
+    }
+
+    int capacity() {
+        return events.length;
+    }
+
+    // producer side; false (and the event is dropped) if the queue is full
+    boolean offer(int event, long time) {
+        long t = tail.get();
+        if (t - head.getAcquire() >= events.length) {
+            return false;
+        }
+        int slot = (int) t & mask;
+        events[slot] = event;
+        times[slot] = time;
+        tail.setRelease(t + 1);
+        return true;
+    }
+
+    // consumer side; copies up to eventsOut.length events and returns how many
+    int drain(int[] eventsOut, long[] timesOut) {
+        long h = head.get();
+        int count = (int) Math.min(tail.getAcquire() - h, eventsOut.length);
+        for (int i = 0; i < count; i++) {
+            int slot = (int) (h + i) & mask;
+            eventsOut[i] = events[slot];
+            timesOut[i] = times[slot];
+        }
+        head.setRelease(h + count);
+        return count;
+    }
+}
@@ -0,0 +1,280 @@
+import java.io.File;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.file.FileAlreadyExistsException;
+import java.nio.file.StandardOpenOption;
+import java.text.SimpleDateFormat;
+import java.util.Arrays;
+import java.util.Date;
+import java.util.concurrent.locks.LockSupport;
+import java.util.logging.Level;
+import java.util.logging.Logger;
+
+/*
+ * Append-only journal of every note played on a keyboard, so a session
+ * survives the app crashing or the window being closed.
+ *
+ * Every producer (the EDT, each MIDI input) gets its own NoteEventQueue from
+ * openQueue and posts to it with record, which never drops an event: when a
+ * queue is full it waits for the writer instead. The journal's own writer
+ * thread drains the queues, merges them by time and writes the records, so
+ * the file is never touched on the EDT or the audio thread. Records go
+ * straight into a memory-mapped region of the file: once written they are
+ * in the OS page cache and survive the JVM dying. Each record is 16 bytes
+ * (nanoseconds since the session started, the packed NoteEventQueue event,
+ * and a check word written last); reading stops at the first record whose
+ * check word does not match, which is where a crash cut the journal short.
+ *
+ * Usage: java NoteJournal <journal.mkj> [out.mid]
+ */
+final class NoteJournal {
+
+    static final File DIRECTORY = new File("journal");
+
+    private static final int MAGIC = 0x4d4b4a31; // "MKJ1"
+    private static final int VERSION = 1;
+    private static final int HEADER_BYTES = 16;
+    private static final int RECORD_BYTES = 16;
+
+    // the file is mapped (and grown) 64K records at a time
+    private static final int REGION_RECORDS = 1 << 16;
+    private static final long REGION_BYTES = (long) REGION_RECORDS * RECORD_BYTES;
+
+    static final int QUEUE_CAPACITY = 1024;
+
+    // how long the writer sleeps when every queue is empty
+    private static final long IDLE_NANOS = 2_000_000;
+
+    private static final Logger LOG = Logger.getLogger(NoteJournal.class.getName());
+
+    private final File file;
+    private final FileChannel channel;
+    private final long origin = System.nanoTime();
+
+    // producer queues, replaced (never modified) when a queue is opened
+    private volatile NoteEventQueue[] queues = new NoteEventQueue[0];
+
+    private final Thread writer;
+    private volatile boolean closing;
+    // set when the writer has finished, after close or a write error
+    private volatile boolean stopped;
+
+    // writer thread only
+    private MappedByteBuffer region;
+    private long regionStart;
+    private long records;
+    private long lastTime;
+    private final int[] drainedEvents = new int[QUEUE_CAPACITY];
+    private final long[] drainedTimes = new long[QUEUE_CAPACITY];
+    private int[] batchEvents = new int[QUEUE_CAPACITY];
+    private long[] batchTimes = new long[QUEUE_CAPACITY];
+
+    private NoteJournal(File file, FileChannel channel) throws IOException {
+        this.file = file;
+        this.channel = channel;
+        ByteBuffer header = ByteBuffer.allocate(HEADER_BYTES);
+        header.putInt(MAGIC).putInt(VERSION).putLong(System.currentTimeMillis()).flip();
+        channel.write(header, 0);
+        mapRegion(HEADER_BYTES);
+        writer = new Thread(this::write, "MeloKeys journal");
+        writer.setDaemon(true);
+        writer.start();
+    }
+
+    // a new journal in DIRECTORY, named after the time and the player; a
+    // counter is added if a journal of that name already exists
+    static NoteJournal create(String player) throws IOException {
+        if (!DIRECTORY.isDirectory() && !DIRECTORY.mkdirs()) {
+            throw new IOException("Cannot create " + DIRECTORY);
+        }
+        String stamp = new SimpleDateFormat("yyyyMMdd-HHmmss-SSS").format(new Date());
+        String name = (player == null ? "" : player).replaceAll("[^A-Za-z0-9_-]", "");
+        String base = stamp + (name.isEmpty() ? "" : "-" + name);
+        for (int attempt = 1; ; attempt++) {
+            File file = new File(DIRECTORY, (attempt == 1 ? base : base + "-" + attempt) + ".mkj");
+            try {
+                FileChannel channel = FileChannel.open(file.toPath(), StandardOpenOption.CREATE_NEW,
+                        StandardOpenOption.READ, StandardOpenOption.WRITE);
+                try {
+                    return new NoteJournal(file, channel);
+                } catch (IOException e) {
+                    channel.close();
+                    throw e;
+                }
+            } catch (FileAlreadyExistsException e) {
+                if (attempt == 100) throw e;
+            }
+        }
+    }
+
+    // a queue for one producer thread, to pass to record
+    synchronized NoteEventQueue openQueue() {
+        NoteEventQueue queue = new NoteEventQueue(QUEUE_CAPACITY);
+        NoteEventQueue[] grown = Arrays.copyOf(queues, queues.length + 1);
+        grown[grown.length - 1] = queue;
+        queues = grown;
+        return queue;
+    }
+
+    // journal one event, from the producer of a queue opened here; waits for
+    // the writer if the queue is full, and does nothing once it has stopped
+    void record(NoteEventQueue queue, int event, long time) {
+        while (!queue.offer(event, time)) {
+            if (stopped) return;
+            LockSupport.unpark(writer);
+            Thread.onSpinWait();
+        }
+    }
+
+    File file() {
+        return file;
+    }
+
+    private void mapRegion(long start) throws IOException {
+        region = channel.map(FileChannel.MapMode.READ_WRITE, start, REGION_BYTES);
+        region.order(ByteOrder.LITTLE_ENDIAN);
+        regionStart = start;
+    }
+
+    private static int check(long time, int event) {
+        return MAGIC ^ event ^ (int) time ^ (int) (time >>> 32);
+    }
+
+    // writer thread: drain every queue until closed, then cut the file to
+    // the records written
+    private void write() {
+        try {
+            while (true) {
+                // read before draining, so events posted before close are kept
+                boolean last = closing;
+                int count = drainQueues();
+                sortByTime(count);
+                for (int i = 0; i < count; i++) {
+                    append(batchEvents[i], batchTimes[i]);
+                }
+                if (last) break;
+                if (count == 0) {
+                    LockSupport.parkNanos(IDLE_NANOS);
+                }
+            }
+        } catch (IOException e) {
+            LOG.log(Level.WARNING, "Stopped journalling to " + file, e);
+        } finally {
+            stopped = true;
+            try {
+                region.force();
+                channel.truncate(HEADER_BYTES + records * RECORD_BYTES);
+                channel.close();
+            } catch (IOException e) {
+                LOG.log(Level.WARNING, "Cannot close " + file, e);
+            }
+        }
+    }
+
+    // everything waiting in the queues, into the batch arrays
+    private int drainQueues() {
+        NoteEventQueue[] queues = this.queues;
+        int needed = queues.length * QUEUE_CAPACITY;
+        if (batchEvents.length < needed) {
+            batchEvents = new int[needed];
+            batchTimes = new long[needed];
+        }
+        int count = 0;
+        for (NoteEventQueue queue : queues) {
+            int drained = queue.drain(drainedEvents, drainedTimes);
+            System.arraycopy(drainedEvents, 0, batchEvents, count, drained);
+            System.arraycopy(drainedTimes, 0, batchTimes, count, drained);
+            count += drained;
+        }
+        return count;
+    }
+
+    // merge the queues' events by time (insertion sort: each queue's part of
+    // the batch is already in order, and batches are small)
+    private void sortByTime(int count) {
+        for (int i = 1; i < count; i++) {
+            int event = batchEvents[i];
+            long time = batchTimes[i];
+            int j = i - 1;
+            while (j >= 0 && batchTimes[j] > time) {
+                batchEvents[j + 1] = batchEvents[j];
+                batchTimes[j + 1] = batchTimes[j];
+                j--;
+            }
+            batchEvents[j + 1] = event;
+            batchTimes[j + 1] = time;
+        }
+    }
+
+    private void append(int event, long eventTime) throws IOException {
+        long offset = HEADER_BYTES + records * RECORD_BYTES - regionStart;
+        if (offset == REGION_BYTES) {
+            mapRegion(regionStart + REGION_BYTES);
+            offset = 0;
+        }
+        // never earlier than the last record: an event stamped just before
+        // one from another queue may be drained in the next batch
+        long time = Math.max(lastTime, eventTime - origin);
+        int at = (int) offset;
+        region.putLong(at, time);
+        region.putInt(at + 8, event);
+        // written last: the record only counts once this matches
+        region.putInt(at + 12, check(time, event));
+        records++;
+        lastTime = time;
+    }
+
+    // write what has been recorded and close the file; waits for the writer
+    void close() {
+        closing = true;
+        LockSupport.unpark(writer);
+        try {
+            writer.join();
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+        }
+    }
+
+    // every complete record of a journal, including one that was never closed
+    static NoteSequence read(File file) throws IOException {
+        try (FileChannel in = FileChannel.open(file.toPath(), StandardOpenOption.READ)) {
+            if (in.size() < HEADER_BYTES) {
+                throw new IOException(file + ": not a MeloKeys journal");
+            }
+            MappedByteBuffer data = in.map(FileChannel.MapMode.READ_ONLY, 0, in.size());
+            if (data.getInt(0) != MAGIC || data.getInt(4) != VERSION) {
+                throw new IOException(file + ": not a MeloKeys journal");
+            }
+            data.order(ByteOrder.LITTLE_ENDIAN);
+            long count = (in.size() - HEADER_BYTES) / RECORD_BYTES;
+            NoteSequence sequence = new NoteSequence((int) Math.min(count, 1 << 16));
+            long previous = 0;
+            for (long i = 0; i < count; i++) {
+                int at = (int) (HEADER_BYTES + i * RECORD_BYTES);
+                long time = data.getLong(at);
+                int event = data.getInt(at + 8);
+                if (data.getInt(at + 12) != check(time, event) || time < previous) {
+                    break;
+                }
+                sequence.add(event, time);
+                previous = time;
+            }
+            return sequence;
+        }
+    }
+
+    public static void main(String[] args) throws IOException {
+        if (args.length < 1) {
+            System.err.println("Usage: java NoteJournal <journal.mkj> [out.mid]");
+            System.exit(2);
+        }
+        NoteSequence sequence = read(new File(args[0]));
+        System.out.printf("%d events, %.1f s%n", sequence.size(), sequence.durationNanos() / 1e9);
+        if (args.length > 1) {
+            MidiFileIO.write(sequence, new File(args[1]));
+        }
+    }
+}
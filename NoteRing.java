@@ -0,0 +1,114 @@
+import java.util.NoSuchElementException;
+
+/*
+ * Fixed-capacity FIFO of played notes and the System.nanoTime() at which
+ * each was played, kept in two primitive arrays so adding a note never
+ * allocates. When the ring is full the overflow policy decides which note is
+ * lost, and lost notes are counted.
+ *
+ * Thread-safe: the EDT adds while any thread takes notes out, waiting for
+ * one with poll if it likes.
+ */
+final class NoteRing {
+
+    enum Overflow {
+        // keep the most recent notes, forgetting the oldest one
+        DROP_OLDEST,
+        // keep what is already queued, refusing the new note
+        DROP_NEWEST
+    }
+
+    private final int[] notes;
+    private final long[] times;
+    private final int mask;
+    private final Overflow overflow;
+
+    // next note to take, and notes queued
+    private int head;
+    private int size;
+    private long dropped;
+
+    // capacity is rounded up to a power of two
+    NoteRing(int capacity, Overflow overflow) {
+        int size = Integer.highestOneBit(Math.max(1, capacity - 1)) << 1;
+        notes = new int[size];
+        times = new long[size];
+        mask = size - 1;
+        this.overflow = overflow;
+    }
+
+    // queue a note; false if a note was lost to make room (or this one was refused)
+    synchronized boolean add(int note, long time) {
+        boolean lost = false;
+        if (size == notes.length) {
+            dropped++;
+            lost = true;
+            if (overflow == Overflow.DROP_NEWEST) {
+                return false;
+            }
+            head = (head + 1) & mask;
+            size--;
+        }
+        int tail = (head + size) & mask;
+        notes[tail] = note;
+        times[tail] = time;
+        size++;
+        notifyAll();
+        return !lost;
+    }
+
+    // oldest note, removed from the ring
+    synchronized int remove() {
+        if (size == 0) {
+            throw new NoSuchElementException("No notes played");
+        }
+        int note = notes[head];
+        head = (head + 1) & mask;
+        size--;
+        return note;
+    }
+
+    // oldest note, waiting up to timeoutNanos for one; -1 if none came
+    synchronized int poll(long timeoutNanos) throws InterruptedException {
+        long deadline = System.nanoTime() + timeoutNanos;
+        while (size == 0) {
+            long left = deadline - System.nanoTime();
+            if (left <= 0) {
+                return -1;
+            }
+            wait(left / 1_000_000, (int) (left % 1_000_000));
+        }
+        return remove();
+    }
+
+    // move up to notes.length (and times.length) of the oldest notes into the
+    // arrays, oldest first; returns how many were moved
+    synchronized int drainTo(int[] notes, long[] times) {
+        int n = Math.min(size, Math.min(notes.length, times.length));
+        for (int i = 0; i < n; i++) {
+            int slot = (head + i) & mask;
+            notes[i] = this.notes[slot];
+            times[i] = this.times[slot];
+        }
+        head = (head + n) & mask;
+        size -= n;
+        return n;
+    }
+
+    synchronized boolean isEmpty() {
+        return size == 0;
+    }
+
+    synchronized int size() {
+        return size;
+    }
+
+    int capacity() {
+        return notes.length;
+    }
+
+    // notes lost to overflow since the ring was created
+    synchronized long dropped() {
+        return dropped;
+    }
+}
@@ -0,0 +1,53 @@
+import java.util.Arrays;
+
+/*
+ * A performance or song as a list of timed note events, stored in two
+ * parallel primitive arrays: the events (packed as in NoteEventQueue) and
+ * their times in nanoseconds from the start. Events are kept in time order.
+ */
+final class NoteSequence {
+
+    private int[] events;
+    private long[] times;
+    private int size;
+
+    NoteSequence() {
+        this(64);
+    }
+
+    NoteSequence(int capacity) {
+        events = new int[Math.max(1, capacity)];
+        times = new long[Math.max(1, capacity)];
+    }
+
+    // append an event; times must not go backwards
+    void add(int event, long timeNanos) {
+        if (size > 0 && timeNanos < times[size - 1]) {
+            throw new IllegalArgumentException("Events must be added in time order");
+        }
+        if (size == events.length) {
+            events = Arrays.copyOf(events, size * 2);
+            times = Arrays.copyOf(times, size * 2);
+        }
+        events[size] = event;
+        times[size] = timeNanos;
+        size++;
+    }
+
+    int size() {
+        return size;
+    }
+
+    int event(int index) {
+        return events[index];
+    }
+
+    long time(int index) {
+        return times[index];
+    }
+
+    // time of the last event, 0 when empty
+    long durationNanos() {
+        return size == 0 ? 0 : times[size - 1];
+    }
+}
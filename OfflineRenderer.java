@@ -0,0 +1,121 @@
+import javax.sound.sampled.AudioFileFormat;
+import javax.sound.sampled.AudioInputStream;
+import javax.sound.sampled.AudioSystem;
+import java.io.File;
+import java.io.IOException;
+import java.io.InputStream;
+import java.sql.SQLException;
+
+/*
+ * Renders a NoteSequence (a song or a recorded session) to a WAV file.
+ *
+ * This runs the same VoiceMixer as the live engine, but without an output
+ * line: blocks are mixed as fast as the CPU allows and streamed straight into
+ * the file. Every renderer has its own voices and shares the SampleBank.
+ *
+ * Usage: java OfflineRenderer "<song name>" <out.wav> [bpm]
+ *        java OfflineRenderer <in.mid> <out.wav>
+ */
+final class OfflineRenderer {
+
+    // time left after the last event for the release and the sample to ring out
+    private static final long TAIL_NANOS = 2_000_000_000L;
+
+    private final VoiceMixer mixer;
+
+    OfflineRenderer(SampleBank bank) {
+        this.mixer = new VoiceMixer(bank);
+    }
+
+    // length of the rendered audio for a sequence, in frames
+    static long frames(NoteSequence sequence) {
+        return toFrame(sequence.durationNanos() + TAIL_NANOS);
+    }
+
+    // write the whole sequence to a WAV file, returns the frames written
+    long render(NoteSequence sequence, File wav) throws IOException {
+        long frames = frames(sequence);
+        try (AudioInputStream in = new AudioInputStream(new RenderStream(sequence), AudioEngine.FORMAT, frames)) {
+            AudioSystem.write(in, AudioFileFormat.Type.WAVE, wav);
+        }
+        return frames;
+    }
+
+    private static long toFrame(long nanos) {
+        return (long) Math.ceil(nanos * (double) SampleBank.SAMPLE_RATE / 1e9);
+    }
+
+    // mixes the next block whenever the previous one has been read
+    private final class RenderStream extends InputStream {
+        private final NoteSequence sequence;
+        private final float[] mix = new float[VoiceMixer.BLOCK_FRAMES * VoiceMixer.CHANNELS];
+        private final byte[] block = new byte[VoiceMixer.BLOCK_FRAMES * AudioEngine.FORMAT.getFrameSize()];
+        private int blockPosition = block.length;
+        private long blockStartFrame;
+        private int nextEvent;
+
+        RenderStream(NoteSequence sequence) {
+            this.sequence = sequence;
+        }
+
+        private void nextBlock() {
+            // events are applied at the block they fall in, as in the live engine
+            long blockEnd = blockStartFrame + VoiceMixer.BLOCK_FRAMES;
+            while (nextEvent < sequence.size() && toFrame(sequence.time(nextEvent)) < blockEnd) {
+                mixer.handle(sequence.event(nextEvent++));
+            }
+            mixer.mix(mix);
+            VoiceMixer.toPcm(mix, block);
+            blockStartFrame = blockEnd;
+            blockPosition = 0;
+        }
+
+        @Override
+        public int read() {
+            if (blockPosition == block.length) nextBlock();
+            return block[blockPosition++] & 0xff;
+        }
+
+        @Override
+        public int read(byte[] b, int off, int len) {
+            int copied = 0;
+            while (copied < len) {
+                if (blockPosition == block.length) nextBlock();
+                int n = Math.min(len - copied, block.length - blockPosition);
+                System.arraycopy(block, blockPosition, b, off + copied, n);
+                blockPosition += n;
+                copied += n;
+            }
+            return copied;
+        }
+    }
+
+    public static void main(String[] args) throws IOException, SQLException, InterruptedException {
+        if (args.length < 2) {
+            System.err.println("Usage: java OfflineRenderer \"<song name>\" <out.wav> [bpm]");
+            System.err.println("       java OfflineRenderer <in.mid> <out.wav>");
+            System.exit(2);
+        }
+        NoteSequence sequence;
+        if (args[0].toLowerCase().endsWith(".mid")) {
+            sequence = new MidiFileIO().read(new File(args[0]));
+        } else {
+            int bpm = args.length > 2 ? Integer.parseInt(args[2]) : SongParser.DEFAULT_BPM;
+            String song = SongLibrary.song(args[0]);
+            if (song.isEmpty()) {
+                System.err.println("No song called " + args[0]);
+                System.exit(1);
+            }
+            sequence = SongParser.parse(song, bpm);
+        }
+        SampleBank bank = SampleBank.get();
+        bank.awaitLoaded();
+
+        long start = System.nanoTime();
+        long frames = new OfflineRenderer(bank).render(sequence, new File(args[1]));
+        double seconds = (System.nanoTime() - start) / 1e9;
+        double audioSeconds = frames / SampleBank.SAMPLE_RATE;
+        System.out.printf("Rendered %.1f s of audio in %.2f s (%.0fx real time)%n",
+                audioSeconds, seconds, audioSeconds / seconds);
+    }
+}
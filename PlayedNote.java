@@ -0,0 +1,37 @@
+/*
+ * A note played on a keyboard frame, as published to its Flow subscribers:
+ * the NoteEventQueue event (note on or off, note, velocity) and the
+ * System.nanoTime() at which the key went down or up.
+ */
+final class PlayedNote {
+
+    private final int event;
+    private final long time;
+
+    PlayedNote(int event, long time) {
+        this.event = event;
+        this.time = time;
+    }
+
+    // packed as in NoteEventQueue
+    int event() {
+        return event;
+    }
+
+    long time() {
+        return time;
+    }
+
+    // 0 = C3 ... 35 = B5
+    int note() {
+        return NoteEventQueue.note(event);
+    }
+
+    boolean isNoteOn() {
+        return NoteEventQueue.type(event) == NoteEventQueue.NOTE_ON;
+    }
+
+    public String toString() {
+        return (isNoteOn() ? "on " : "off ") + note() + " @" + time;
+    }
+}
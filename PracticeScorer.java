@@ -0,0 +1,154 @@
+import java.util.concurrent.Flow;
+
+/*
+ * Grades what a student plays against a song while they play it.
+ *
+ * The played notes are aligned to the song notes by edit distance (a wrong
+ * note, an extra note and a skipped song note each cost 1), computed one
+ * played note at a time: each note adds a column to the edit distance table.
+ * Only a window of WINDOW song notes either side of the current position is
+ * computed, so every note costs the same bounded work however long the song
+ * is. The position is the song prefix the played notes match best.
+ *
+ * Subscribes to a keyboard's note publisher; note offs are ignored. State is
+ * only touched on the delivery thread, the results are read from any thread.
+ */
+final class PracticeScorer implements Flow.Subscriber<PlayedNote> {
+
+    // song notes either side of the position that are considered
+    static final int WINDOW = 16;
+
+    private static final int INFINITY = Integer.MAX_VALUE / 2;
+
+    private final int[] song;
+    private final Runnable listener;
+
+    // the last two columns of the table, and the song range each one covers
+    private int[] previous;
+    private int[] current;
+    private int previousLow;
+    private int previousHigh;
+
+    private volatile Flow.Subscription subscription;
+
+    // results, written by the delivery thread
+    private volatile int position;
+    private volatile int errors;
+    private volatile int played;
+
+    // listener is called on the delivery thread after every note
+    PracticeScorer(int[] song, Runnable listener) {
+        this.song = song;
+        this.listener = listener;
+        previous = new int[song.length + 1];
+        current = new int[song.length + 1];
+        // before any note: reaching song note i means skipping i notes
+        previousLow = 0;
+        previousHigh = Math.min(song.length, WINDOW);
+        for (int i = previousLow; i <= previousHigh; i++) {
+            previous[i] = i;
+        }
+    }
+
+    // take one played note into the alignment
+    void play(int note) {
+        int low = Math.max(0, position - WINDOW);
+        int high = Math.min(song.length, position + WINDOW + 1);
+        int best = -1;
+        for (int i = low; i <= high; i++) {
+            // an extra note: stay on song note i
+            int cost = cell(i) + 1;
+            if (i > 0) {
+                // play song note i-1, right or wrong
+                cost = Math.min(cost, cell(i - 1) + (song[i - 1] == note ? 0 : 1));
+                // skip song note i-1
+                if (i > low) {
+                    cost = Math.min(cost, current[i - 1] + 1);
+                }
+            }
+            current[i] = cost;
+            // the furthest position of the lowest cost
+            if (best < 0 || cost <= current[best]) {
+                best = i;
+            }
+        }
+        int[] swap = previous;
+        previous = current;
+        current = swap;
+        previousLow = low;
+        previousHigh = high;
+        played++;
+        errors = previous[best];
+        position = best;
+        listener.run();
+    }
+
+    // previous column, infinite outside its window
+    private int cell(int i) {
+        return i < previousLow || i > previousHigh ? INFINITY : previous[i];
+    }
+
+    // song notes played so far (where the student is in the song)
+    int position() {
+        return position;
+    }
+
+    // wrong, extra and skipped notes up to the position
+    int errors() {
+        return errors;
+    }
+
+    // notes played
+    int played() {
+        return played;
+    }
+
+    int songLength() {
+        return song.length;
+    }
+
+    boolean isFinished() {
+        return position == song.length;
+    }
+
+    // share of the song so far that was played right, 0 to 100
+    int accuracy() {
+        int position = this.position;
+        int errors = this.errors;
+        return position == 0 ? 100 : Math.max(0, 100 * (position - Math.min(position, errors)) / position);
+    }
+
+    // stop receiving notes
+    void cancel() {
+        Flow.Subscription subscription = this.subscription;
+        if (subscription != null) {
+            subscription.cancel();
+        }
+    }
+
+    @Override
+    public void onSubscribe(Flow.Subscription subscription) {
+        this.subscription = subscription;
+        subscription.request(Long.MAX_VALUE);
+    }
+
+    @Override
+    public void onNext(PlayedNote note) {
+        if (note.isNoteOn() && !isFinished()) {
+            play(note.note());
+        }
+    }
+
+    @Override
+    public void onError(Throwable error) {
+    }
+
+    @Override
+    public void onComplete() {
+    }
+
+    @Override
+    public String toString() {
+        return String.format("%d/%d notes, %d errors (%d%%)", position, song.length, errors, accuracy());
+    }
+}
@@ -0,0 +1,102 @@
+import java.lang.management.ManagementFactory;
+
+/*
+ * Checks that the render path does not allocate. Runs the same steps as the
+ * AudioEngine render loop (NoteEventQueue offer and drain, VoiceMixer handle
+ * and mix with the metronome on, EffectsBus with reverb and EQ on, toPcm)
+ * on thousands of synthetic note on, note off and sustain events, and
+ * measures the thread's allocation after warm-up with
+ * com.sun.management.ThreadMXBean. Exits with status 1 if anything was
+ * allocated.
+ *
+ * Usage: java --add-modules jdk.incubator.vector RenderAllocationCheck [blocks]
+ */
+final class RenderAllocationCheck {
+
+    // runs of the same length before the measured one, so classes are loaded
+    // and the JIT has finished: a compile request made from this thread
+    // allocates a little, which would be counted
+    private static final int WARMUP_RUNS = 4;
+
+    private static final int QUEUE_CAPACITY = 1024;
+
+    private RenderAllocationCheck() {
+    }
+
+    public static void main(String[] args) throws InterruptedException {
+        int blocks = args.length > 0 ? Integer.parseInt(args[0]) : 10_000;
+        if (!(ManagementFactory.getThreadMXBean() instanceof com.sun.management.ThreadMXBean)) {
+            System.err.println("This JVM cannot measure thread allocation");
+            System.exit(2);
+        }
+        com.sun.management.ThreadMXBean threads = (com.sun.management.ThreadMXBean) ManagementFactory.getThreadMXBean();
+        threads.setThreadAllocatedMemoryEnabled(true);
+
+        SampleBank bank = SampleBank.get();
+        bank.awaitLoaded();
+        VoiceMixer mixer = new VoiceMixer(bank);
+        mixer.metronome().setEnabled(true);
+        EffectsBus effects = new EffectsBus();
+        effects.setEnabled(effects.reverb(), true);
+        effects.setEnabled(effects.eq(), true);
+        effects.eq().setGain(ThreeBandEq.LOW, 4);
+        NoteEventQueue queue = new NoteEventQueue(QUEUE_CAPACITY);
+
+        float[] mix = new float[VoiceMixer.BLOCK_FRAMES * VoiceMixer.CHANNELS];
+        byte[] out = new byte[mix.length * 2];
+        int[] events = new int[QUEUE_CAPACITY];
+        long[] times = new long[QUEUE_CAPACITY];
+        State state = new State();
+
+        for (int i = 0; i < WARMUP_RUNS; i++) {
+            run(queue, mixer, effects, mix, out, events, times, state, blocks);
+        }
+        state.events = 0;
+        long before = threads.getCurrentThreadAllocatedBytes();
+        run(queue, mixer, effects, mix, out, events, times, state, blocks);
+        long allocated = threads.getCurrentThreadAllocatedBytes() - before;
+
+        System.out.printf("%d blocks, %d events: %d bytes allocated%n", blocks, state.events, allocated);
+        if (allocated > 0) {
+            System.exit(1);
+        }
+    }
+
+    // note events posted so far and a small random generator (no allocation)
+    private static final class State {
+        long events;
+        long seed = 42;
+        boolean sustain;
+
+        int next(int bound) {
+            seed = seed * 6364136223846793005L + 1442695040888963407L;
+            return (int) ((seed >>> 33) % bound);
+        }
+    }
+
+    private static void run(NoteEventQueue queue, VoiceMixer mixer, EffectsBus effects, float[] mix, byte[] out,
+                            int[] events, long[] times, State state, int blocks) {
+        for (int b = 0; b < blocks; b++) {
+            // a few events per block, like fast playing with the pedal
+            int count = state.next(4);
+            for (int i = 0; i < count; i++) {
+                int note = state.next(SampleBank.NOTE_COUNT);
+                int event = switch (state.next(8)) {
+                    case 0 -> NoteEventQueue.sustain(state.sustain = !state.sustain);
+                    case 1, 2, 3 -> NoteEventQueue.noteOff(note);
+                    default -> NoteEventQueue.noteOn(note, 1 + state.next(127));
+                };
+                if (queue.offer(event, System.nanoTime())) {
+                    state.events++;
+                }
+            }
+            int drained = queue.drain(events, times);
+            for (int i = 0; i < drained; i++) {
+                mixer.handle(events[i]);
+            }
+            mixer.mix(mix);
+            effects.process(mix, VoiceMixer.BLOCK_FRAMES);
+            VoiceMixer.toPcm(mix, out);
+        }
+    }
+}
@@ -0,0 +1,123 @@
+import java.util.Arrays;
+
+/*
+ * Schroeder/Moorer style reverb (the classic "Freeverb" layout): eight damped
+ * comb filters in parallel followed by four allpass filters in series, per
+ * channel, with the right channel's delays slightly longer for stereo width.
+ * All delay lines are allocated in the constructor.
+ */
+final class Reverb implements Effect {
+
+    // delay lengths in frames, tuned for 44.1 kHz
+    private static final int[] COMB_TUNING = { 1116, 1188, 1277, 1356, 1422, 1491, 1557, 1617 };
+    private static final int[] ALLPASS_TUNING = { 556, 441, 341, 225 };
+    private static final int STEREO_SPREAD = 23;
+
+    private static final float INPUT_GAIN = 0.015f;
+    private static final float WET_SCALE = 3f;
+    private static final float ALLPASS_FEEDBACK = 0.5f;
+
+    // feedback below this is flushed to 0: denormal floats are very slow, and
+    // a decaying tail ends in them
+    static final float DENORMAL = 1e-15f;
+
+    // [channel][filter] delay lines and their write positions
+    private final float[][][] combs = new float[2][COMB_TUNING.length][];
+    private final int[][] combIndex = new int[2][COMB_TUNING.length];
+    private final float[][] combLowpass = new float[2][COMB_TUNING.length];
+    private final float[][][] allpasses = new float[2][ALLPASS_TUNING.length][];
+    private final int[][] allpassIndex = new int[2][ALLPASS_TUNING.length];
+
+    private volatile float roomSize = 0.84f;
+    private volatile float damping = 0.2f;
+    private volatile float wet = 0.25f;
+
+    Reverb() {
+        for (int ch = 0; ch < 2; ch++) {
+            int spread = ch * STEREO_SPREAD;
+            for (int i = 0; i < COMB_TUNING.length; i++) {
+                combs[ch][i] = new float[COMB_TUNING[i] + spread];
+            }
+            for (int i = 0; i < ALLPASS_TUNING.length; i++) {
+                allpasses[ch][i] = new float[ALLPASS_TUNING[i] + spread];
+            }
+        }
+    }
+
+    @Override
+    public String name() {
+        return "reverb";
+    }
+
+    // comb feedback, 0 to just under 1 (bigger is longer)
+    void setRoomSize(float roomSize) {
+        this.roomSize = Math.max(0f, Math.min(0.98f, roomSize));
+    }
+
+    // high frequency damping inside the combs, 0 to 1
+    void setDamping(float damping) {
+        this.damping = Math.max(0f, Math.min(1f, damping));
+    }
+
+    // level of the reverberated signal added to the dry signal, 0 to 1
+    void setWet(float wet) {
+        this.wet = Math.max(0f, Math.min(1f, wet));
+    }
+
+    float getWet() {
+        return wet;
+    }
+
+    @Override
+    public void process(float[] block, int frames) {
+        float feedback = roomSize;
+        float damp = damping;
+        float wetGain = wet * WET_SCALE;
+        for (int f = 0; f < frames; f++) {
+            float left = block[2 * f];
+            float right = block[2 * f + 1];
+            float input = (left + right) * INPUT_GAIN;
+            block[2 * f] = left + channel(0, input, feedback, damp) * wetGain;
+            block[2 * f + 1] = right + channel(1, input, feedback, damp) * wetGain;
+        }
+    }
+
+    // one output sample of one channel's filter network
+    private float channel(int ch, float input, float feedback, float damp) {
+        float out = 0f;
+        float[][] lines = combs[ch];
+        int[] index = combIndex[ch];
+        float[] lowpass = combLowpass[ch];
+        for (int i = 0; i < lines.length; i++) {
+            float[] line = lines[i];
+            int pos = index[i];
+            float delayed = line[pos];
+            float filtered = delayed * (1f - damp) + lowpass[i] * damp;
+            lowpass[i] = Math.abs(filtered) < DENORMAL ? 0f : filtered;
+            line[pos] = input + lowpass[i] * feedback;
+            index[i] = pos + 1 == line.length ? 0 : pos + 1;
+            out += delayed;
+        }
+        lines = allpasses[ch];
+        index = allpassIndex[ch];
+        for (int i = 0; i < lines.length; i++) {
+            float[] line = lines[i];
+            int pos = index[i];
+            float delayed = line[pos];
+            float next = out + delayed * ALLPASS_FEEDBACK;
+            line[pos] = Math.abs(next) < DENORMAL ? 0f : next;
+            index[i] = pos + 1 == line.length ? 0 : pos + 1;
+            out = delayed - out;
+        }
+        return out;
+    }
+
+    @Override
+    public void reset() {
+        for (int ch = 0; ch < 2; ch++) {
+            for (float[] line : combs[ch]) Arrays.fill(line, 0f);
+            for (float[] line : allpasses[ch]) Arrays.fill(line, 0f);
+            Arrays.fill(combLowpass[ch], 0f);
+        }
+    }
+}
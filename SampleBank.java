@@ -0,0 +1,269 @@
+import javax.sound.sampled.AudioFormat;
+import javax.sound.sampled.AudioInputStream;
+import javax.sound.sampled.AudioSystem;
+import javax.sound.sampled.UnsupportedAudioFileException;
+import java.io.File;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardCopyOption;
+import java.nio.file.StandardOpenOption;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicReferenceArray;
+import java.util.logging.Level;
+import java.util.logging.Logger;
+
+/*
+ * Decoded piano samples, shared by the whole application.
+ *
+ * The first time it runs, the files in Octave 3/4/5 are decoded and written
+ * to a single raw PCM cache file (samples.pcm) with an index of every note.
+ * After that the cache is memory-mapped, so starting up costs no decoding
+ * and the OS only pages in the notes that are actually played. Every
+ * keyboard window borrows the same mapping, so switching between Keyboard
+ * and Keyboard_fp costs no disk I/O and no extra heap.
+ *
+ * Loading happens in the background. Without a cache, Octave 4 is decoded
+ * first and the outer octaves follow in parallel; every note can be played
+ * as soon as its own sample is ready, and sample(note) is null until then.
+ */
+public final class SampleBank {
+
+    // the samples are 44.1 kHz, 16 bit stereo
+    static final float SAMPLE_RATE = 44100f;
+    static final int CHANNELS = 2;
+
+    // 3 octaves, C3 to B5
+    static final int NOTE_COUNT = 36;
+    private static final String[] NOTE_NAMES = { "C", "Db", "D", "Eb", "E", "F", "Gb", "G", "Ab", "A", "Bb", "B" };
+    private static final int FIRST_OCTAVE = 3;
+
+    // cache file layout: header, one index entry per note, then the samples
+    static final Path CACHE_FILE = Path.of("samples.pcm");
+    private static final int MAGIC = 0x4d4b5043; // "MKPC"
+    private static final int VERSION = 1;
+    private static final int HEADER_BYTES = 20;
+    private static final int ENTRY_BYTES = 32;
+
+    private static final Logger LOG = Logger.getLogger(SampleBank.class.getName());
+
+    private static SampleBank instance;
+
+    // interleaved 16 bit little-endian stereo samples of each note, null
+    // while still loading (decoded arrays at first, then views of the cache)
+    private final AtomicReferenceArray<ByteBuffer> samples = new AtomicReferenceArray<>(NOTE_COUNT);
+
+    // startup timing
+    private final long startNanos = System.nanoTime();
+    private final AtomicBoolean firstNoteReady = new AtomicBoolean();
+    private final CountDownLatch loaded = new CountDownLatch(1);
+
+    // starts loading on first use, returns straight away
+    public static synchronized SampleBank get() {
+        if (instance == null) {
+            instance = new SampleBank();
+            Thread loader = new Thread(instance::load, "MeloKeys sample loader");
+            loader.setDaemon(true);
+            loader.start();
+        }
+        return instance;
+    }
+
+    private SampleBank() {
+    }
+
+    // block until every note has been loaded (or failed to load)
+    void awaitLoaded() throws InterruptedException {
+        loaded.await();
+    }
+
+    private void load() {
+        try {
+            if (!cacheIsValid()) {
+                writeCache(decodeAll());
+            }
+            map();
+            LOG.info(String.format("All %d notes loaded after %d ms", NOTE_COUNT, elapsedMillis()));
+        } catch (IOException e) {
+            LOG.log(Level.SEVERE, "Could not load the piano samples", e);
+        } finally {
+            loaded.countDown();
+        }
+    }
+
+    // make a note playable
+    private void publish(int note, ByteBuffer sample) {
+        samples.set(note, sample);
+        if (firstNoteReady.compareAndSet(false, true)) {
+            LOG.info(String.format("First playable note after %d ms", elapsedMillis()));
+        }
+    }
+
+    private long elapsedMillis() {
+        return (System.nanoTime() - startNanos) / 1_000_000;
+    }
+
+    // sample file of a note, e.g. note 0 is "Octave 3/Piano.ff.C3.aiff"
+    static String fileName(int note) {
+        int octave = FIRST_OCTAVE + note / 12;
+        return "Octave " + octave + "/Piano.ff." + NOTE_NAMES[note % 12] + octave + ".aiff";
+    }
+
+    // interleaved little-endian samples of a note, or null if it is not
+    // loaded yet; read with absolute getShort(2 * index) only
+    ByteBuffer sample(int note) {
+        return samples.get(note);
+    }
+
+    // length of a loaded note in frames
+    int frames(int note) {
+        return samples.get(note).capacity() / (2 * CHANNELS);
+    }
+
+    // middle octave first, it is where most songs are played
+    private static int[] loadOrder() {
+        int[] order = new int[NOTE_COUNT];
+        int i = 0;
+        for (int note = 12; note < 24; note++) order[i++] = note;
+        for (int note = 0; note < 12; note++) order[i++] = note;
+        for (int note = 24; note < NOTE_COUNT; note++) order[i++] = note;
+        return order;
+    }
+
+    // decode every note on a thread pool, publishing each one as it is done
+    private byte[][] decodeAll() throws IOException {
+        byte[][] decoded = new byte[NOTE_COUNT][];
+        ExecutorService pool = Executors.newFixedThreadPool(Runtime.getRuntime().availableProcessors(), r -> {
+            Thread thread = new Thread(r, "MeloKeys sample decoder");
+            thread.setDaemon(true);
+            return thread;
+        });
+        try {
+            List<Future<?>> tasks = new ArrayList<>();
+            for (int note : loadOrder()) {
+                tasks.add(pool.submit(() -> {
+                    decoded[note] = decode(new File(fileName(note)));
+                    publish(note, ByteBuffer.wrap(decoded[note]).order(ByteOrder.LITTLE_ENDIAN));
+                    return null;
+                }));
+            }
+            for (Future<?> task : tasks) {
+                task.get();
+            }
+        } catch (ExecutionException e) {
+            throw new IOException("Could not decode a sample", e.getCause());
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            throw new IOException("Interrupted while decoding the samples", e);
+        } finally {
+            pool.shutdownNow();
+        }
+        return decoded;
+    }
+
+    // the cache can be used if every index entry still matches its source file
+    private static boolean cacheIsValid() throws IOException {
+        if (!Files.isRegularFile(CACHE_FILE)) {
+            return false;
+        }
+        try (FileChannel channel = FileChannel.open(CACHE_FILE, StandardOpenOption.READ)) {
+            int indexBytes = HEADER_BYTES + NOTE_COUNT * ENTRY_BYTES;
+            if (channel.size() < indexBytes) {
+                return false;
+            }
+            ByteBuffer index = channel.map(FileChannel.MapMode.READ_ONLY, 0, indexBytes).order(ByteOrder.LITTLE_ENDIAN);
+            if (index.getInt() != MAGIC || index.getInt() != VERSION || index.getInt() != NOTE_COUNT
+                    || index.getInt() != (int) SAMPLE_RATE || index.getInt() != CHANNELS) {
+                return false;
+            }
+            for (int note = 0; note < NOTE_COUNT; note++) {
+                File source = new File(fileName(note));
+                long length = index.getLong();
+                long modified = index.getLong();
+                long offset = index.getLong();
+                int frames = index.getInt();
+                index.getInt();
+                if (length != source.length() || modified != source.lastModified()
+                        || offset + (long) frames * CHANNELS * 2 > channel.size()) {
+                    return false;
+                }
+            }
+            return true;
+        }
+    }
+
+    // write the decoded notes to the cache file (replaced atomically)
+    private static void writeCache(byte[][] decoded) throws IOException {
+        long offset = HEADER_BYTES + NOTE_COUNT * ENTRY_BYTES;
+        ByteBuffer index = ByteBuffer.allocate((int) offset).order(ByteOrder.LITTLE_ENDIAN);
+        index.putInt(MAGIC).putInt(VERSION).putInt(NOTE_COUNT).putInt((int) SAMPLE_RATE).putInt(CHANNELS);
+        for (int note = 0; note < NOTE_COUNT; note++) {
+            File source = new File(fileName(note));
+            index.putLong(source.length()).putLong(source.lastModified()).putLong(offset);
+            index.putInt(decoded[note].length / (2 * CHANNELS)).putInt(0);
+            offset += decoded[note].length;
+        }
+        index.flip();
+
+        Path temp = Files.createTempFile(CACHE_FILE.toAbsolutePath().getParent(), "samples", ".tmp");
+        try (FileChannel channel = FileChannel.open(temp, StandardOpenOption.WRITE)) {
+            channel.write(index);
+            for (byte[] sample : decoded) {
+                channel.write(ByteBuffer.wrap(sample));
+            }
+        }
+        Files.move(temp, CACHE_FILE, StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE);
+    }
+
+    // map the cache file and publish one read-only view per note
+    private void map() throws IOException {
+        try (FileChannel channel = FileChannel.open(CACHE_FILE, StandardOpenOption.READ)) {
+            MappedByteBuffer file = channel.map(FileChannel.MapMode.READ_ONLY, 0, channel.size());
+            file.order(ByteOrder.LITTLE_ENDIAN);
+            for (int note = 0; note < NOTE_COUNT; note++) {
+                int entry = HEADER_BYTES + note * ENTRY_BYTES;
+                int offset = (int) file.getLong(entry + 16);
+                int frames = file.getInt(entry + 24);
+                publish(note, file.slice(offset, frames * CHANNELS * 2).order(ByteOrder.LITTLE_ENDIAN));
+            }
+        }
+    }
+
+    // read a whole sample file as interleaved 16 bit little-endian stereo
+    private static byte[] decode(File file) throws UnsupportedAudioFileException, IOException {
+        try (AudioInputStream source = AudioSystem.getAudioInputStream(file.getAbsoluteFile())) {
+            AudioFormat sourceFormat = source.getFormat();
+            int channels = sourceFormat.getChannels();
+            AudioFormat pcm = new AudioFormat(sourceFormat.getSampleRate(), 16, channels, true, false);
+            try (AudioInputStream in = AudioSystem.getAudioInputStream(pcm, source)) {
+                byte[] bytes = in.readAllBytes();
+                if (channels == CHANNELS) {
+                    return bytes;
+                }
+                int frames = bytes.length / (2 * channels);
+                byte[] out = new byte[frames * CHANNELS * 2];
+                for (int i = 0; i < frames; i++) {
+                    for (int c = 0; c < CHANNELS; c++) {
+                        // mono files are copied to both channels
+                        int b = 2 * (i * channels + Math.min(c, channels - 1));
+                        int o = 2 * (i * CHANNELS + c);
+                        out[o] = bytes[b];
+                        out[o + 1] = bytes[b + 1];
+                    }
+                }
+                return out;
+            }
+        }
+    }
+}
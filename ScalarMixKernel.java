@@ -0,0 +1,30 @@
+import java.nio.ByteBuffer;
+
+/*
+ * Plain Java mixing loop, the fallback when the Vector API is not available.
+ */
+final class ScalarMixKernel implements MixKernel {
+
+    @Override
+    public void accumulate(float[] mix, ByteBuffer sample, int offset, int frames, float gain, float step) {
+        if (step == 0f) {
+            int n = frames * CHANNELS;
+            for (int i = 0; i < n; i++) {
+                mix[i] += sample.getShort(2 * (offset + i)) * gain;
+            }
+            return;
+        }
+        for (int f = 0; f < frames; f++) {
+            float g = Math.max(0f, gain - step * f);
+            for (int c = 0; c < CHANNELS; c++) {
+                int i = f * CHANNELS + c;
+                mix[i] += sample.getShort(2 * (offset + i)) * g;
+            }
+        }
+    }
+
+    @Override
+    public String toString() {
+        return "scalar";
+    }
+}
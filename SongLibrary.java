@@ -0,0 +1,52 @@
+import java.sql.Connection;
+import java.sql.DriverManager;
+import java.sql.PreparedStatement;
+import java.sql.ResultSet;
+import java.sql.SQLException;
+import java.util.LinkedHashMap;
+import java.util.Map;
+
+/*
+ * Access to the songs table of the melokeys database.
+ */
+final class SongLibrary {
+
+    private static final String URL = "jdbc:mysql://localhost:3306/melokeys";
+    private static final String USER = "root";
+    private static final String PASSWORD = "root";
+
+    private SongLibrary() {
+    }
+
+    static Connection connect() throws SQLException {
+        return DriverManager.getConnection(URL, USER, PASSWORD);
+    }
+
+    // the notes of a song, or "" if there is no song with that name
+    static String song(String name) throws SQLException {
+        try (Connection con = connect();
+             PreparedStatement st = con.prepareStatement("select song from songs where name = ?")) {
+            st.setString(1, name);
+            String song = "";
+            try (ResultSet rs = st.executeQuery()) {
+                while (rs.next()) {
+                    song = rs.getString(1);
+                }
+            }
+            return song;
+        }
+    }
+
+    // every song, name to notes, in table order
+    static Map<String, String> all() throws SQLException {
+        Map<String, String> songs = new LinkedHashMap<>();
+        try (Connection con = connect();
+             PreparedStatement st = con.prepareStatement("select name, song from songs");
+             ResultSet rs = st.executeQuery()) {
+            while (rs.next()) {
+                songs.put(rs.getString(1), rs.getString(2));
+            }
+        }
+        return songs;
+    }
+}
@@ -0,0 +1,78 @@
+import java.util.Arrays;
+
+/*
+ * Turns the song text stored in the songs table into a NoteSequence.
+ *
+ * The text is read as a sequence of notes, one per beat. A note is either a
+ * note name from C3 to B5 (C4, F#3, Bb5) or one of the computer keyboard
+ * characters printed on the piano keys (z = C3, s = C#3, ...), so the text
+ * is the raw key string as typed. Some keys are punctuation and are notes
+ * like any other: , = C4, . = D4, ; = D#4, / = E4, - = A#5 and [ = B5, so
+ * they cannot be used as separators. Only characters that are not keys
+ * (spaces, line breaks, other punctuation such as | or ') are ignored.
+ */
+final class SongParser {
+
+    // keyboard characters for notes 0 (C3) to 35 (B5), punctuation included
+    static final String KEYS = "zsxdcvgbhnjm,l.;/q2w3e4rt6y7ui9o0p-[";
+
+    static final int DEFAULT_BPM = 120;
+
+    // part of each beat the note is held for
+    private static final double HOLD = 0.9;
+
+    private static final String SEMITONES = "C D EF G A B";
+
+    private SongParser() {
+    }
+
+    // piano notes (0 = C3 ... 35 = B5) in the order they appear; every
+    // character in KEYS is a note, commas and dashes too
+    static int[] notes(String text) {
+        int[] notes = new int[text.length()];
+        int count = 0;
+        int i = 0;
+        while (i < text.length()) {
+            int name = noteName(text, i);
+            if (name >= 0) {
+                notes[count++] = name & 0xff;
+                i += name >>> 8;
+                continue;
+            }
+            int key = KEYS.indexOf(text.charAt(i));
+            if (key >= 0) {
+                notes[count++] = key;
+            }
+            i++;
+        }
+        return Arrays.copyOf(notes, count);
+    }
+
+    // one note per beat at the given tempo, every note at full velocity
+    static NoteSequence parse(String text, int bpm) {
+        int[] notes = notes(text);
+        long beat = 60_000_000_000L / Math.max(1, bpm);
+        NoteSequence sequence = new NoteSequence(notes.length * 2);
+        for (int i = 0; i < notes.length; i++) {
+            sequence.add(NoteEventQueue.noteOn(notes[i], 127), i * beat);
+            sequence.add(NoteEventQueue.noteOff(notes[i]), i * beat + (long) (beat * HOLD));
+        }
+        return sequence;
+    }
+
+    // a note name such as C4, F#3 or Bb5 starting at index i; returns the
+    // note in the low byte and the length of the name above it, or -1
+    private static int noteName(String text, int i) {
+        int semitone = SEMITONES.indexOf(text.charAt(i));
+        if (semitone < 0 || text.charAt(i) == ' ') return -1;
+        int j = i + 1;
+        if (j < text.length() && (text.charAt(j) == '#' || text.charAt(j) == 'b')) {
+            semitone += text.charAt(j) == '#' ? 1 : -1;
+            j++;
+        }
+        if (j >= text.length() || text.charAt(j) < '3' || text.charAt(j) > '5') return -1;
+        int note = (text.charAt(j) - '3') * 12 + semitone;
+        if (note < 0 || note >= SampleBank.NOTE_COUNT) return -1;
+        return ((j + 1 - i) << 8) | note;
+    }
+}
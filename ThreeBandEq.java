@@ -0,0 +1,119 @@
+import java.util.Arrays;
+
+/*
+ * Three band equaliser: a low shelf at 250 Hz, a peak at 1 kHz and a high
+ * shelf at 4 kHz, each a biquad (RBJ cookbook) per channel. Gains are set in
+ * dB from any thread; the render thread recomputes the coefficients in place
+ * at the start of the next block.
+ */
+final class ThreeBandEq implements Effect {
+
+    static final int LOW = 0;
+    static final int MID = 1;
+    static final int HIGH = 2;
+
+    private static final double[] FREQUENCIES = { 250, 1000, 4000 };
+    private static final double Q = 0.707;
+
+    // gains asked for, and the gains the coefficients were computed for
+    private final float[] gains = new float[3];
+    private final float[] appliedGains = { Float.NaN, Float.NaN, Float.NaN };
+    private volatile int gainVersion;
+    private int appliedVersion = -1;
+
+    // [band] b0, b1, b2, a1, a2 (normalised by a0)
+    private final float[][] coefficients = new float[3][5];
+
+    // [channel][band] x1, x2, y1, y2
+    private final float[][][] state = new float[2][3][4];
+
+    @Override
+    public String name() {
+        return "eq";
+    }
+
+    // gain of a band (LOW, MID or HIGH) in dB, -12 to +12
+    void setGain(int band, float db) {
+        gains[band] = Math.max(-12f, Math.min(12f, db));
+        gainVersion++;
+    }
+
+    float getGain(int band) {
+        return gains[band];
+    }
+
+    @Override
+    public void process(float[] block, int frames) {
+        int version = gainVersion;
+        if (version != appliedVersion) {
+            appliedVersion = version;
+            for (int band = 0; band < 3; band++) {
+                if (gains[band] != appliedGains[band]) {
+                    appliedGains[band] = gains[band];
+                    design(band, gains[band]);
+                }
+            }
+        }
+        for (int f = 0; f < frames; f++) {
+            for (int ch = 0; ch < 2; ch++) {
+                float x = block[2 * f + ch];
+                for (int band = 0; band < 3; band++) {
+                    float[] c = coefficients[band];
+                    float[] s = state[ch][band];
+                    float y = c[0] * x + c[1] * s[0] + c[2] * s[1] - c[3] * s[2] - c[4] * s[3];
+                    // a decaying tail ends in denormals, which are very slow
+                    if (Math.abs(y) < Reverb.DENORMAL) {
+                        y = 0f;
+                    }
+                    s[1] = s[0];
+                    s[0] = x;
+                    s[3] = s[2];
+                    s[2] = y;
+                    x = y;
+                }
+                block[2 * f + ch] = x;
+            }
+        }
+    }
+
+    // shelf or peak coefficients for one band
+    private void design(int band, float db) {
+        double a = Math.pow(10, db / 40.0);
+        double w0 = 2 * Math.PI * FREQUENCIES[band] / SampleBank.SAMPLE_RATE;
+        double cos = Math.cos(w0);
+        double alpha = Math.sin(w0) / (2 * Q);
+        double b0, b1, b2, a0, a1, a2;
+        if (band == MID) {
+            b0 = 1 + alpha * a;
+            b1 = -2 * cos;
+            b2 = 1 - alpha * a;
+            a0 = 1 + alpha / a;
+            a1 = -2 * cos;
+            a2 = 1 - alpha / a;
+        } else {
+            double sign = band == LOW ? 1 : -1;
+            double root = 2 * Math.sqrt(a) * alpha;
+            b0 = a * ((a + 1) - sign * (a - 1) * cos + root);
+            b1 = sign * 2 * a * ((a - 1) - sign * (a + 1) * cos);
+            b2 = a * ((a + 1) - sign * (a - 1) * cos - root);
+            a0 = (a + 1) + sign * (a - 1) * cos + root;
+            a1 = -sign * 2 * ((a - 1) + sign * (a + 1) * cos);
+            a2 = (a + 1) + sign * (a - 1) * cos - root;
+        }
+        float[] c = coefficients[band];
+        c[0] = (float) (b0 / a0);
+        c[1] = (float) (b1 / a0);
+        c[2] = (float) (b2 / a0);
+        c[3] = (float) (a1 / a0);
+        c[4] = (float) (a2 / a0);
+    }
+
+    @Override
+    public void reset() {
+        for (float[][] channel : state) {
+            for (float[] band : channel) {
+                Arrays.fill(band, 0f);
+            }
+        }
+    }
+}
@@ -0,0 +1,72 @@
+import jdk.incubator.vector.FloatVector;
+import jdk.incubator.vector.ShortVector;
+import jdk.incubator.vector.VectorOperators;
+import jdk.incubator.vector.VectorShape;
+import jdk.incubator.vector.VectorSpecies;
+
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+
+/*
+ * SIMD mixing loop on the Vector API. Each step loads as many 16 bit samples
+ * as there are float lanes in the preferred vector size, widens them to
+ * floats, applies the gain (or the release ramp) and adds them to the block.
+ *
+ * Needs --add-modules jdk.incubator.vector at compile and run time; the
+ * class is only loaded through MixKernel.best().
+ */
+final class VectorMixKernel implements MixKernel {
+
+    private static final VectorSpecies<Float> FLOATS = FloatVector.SPECIES_PREFERRED;
+
+    // shorts with the same lane count as FLOATS (half the bit size)
+    private static final VectorSpecies<Short> SHORTS =
+            VectorSpecies.of(short.class, VectorShape.forBitSize(FLOATS.vectorBitSize() / 2));
+
+    private static final int LANES = FLOATS.length();
+
+    // frame index of each lane inside one vector, for the release ramp
+    private static final FloatVector LANE_FRAMES;
+
+    static {
+        float[] frames = new float[LANES];
+        for (int i = 0; i < LANES; i++) {
+            frames[i] = i / CHANNELS;
+        }
+        LANE_FRAMES = FloatVector.fromArray(FLOATS, frames, 0);
+    }
+
+    @Override
+    public void accumulate(float[] mix, ByteBuffer sample, int offset, int frames, float gain, float step) {
+        int n = frames * CHANNELS;
+        int bound = FLOATS.loopBound(n);
+        int i = 0;
+        if (step == 0f) {
+            for (; i < bound; i += LANES) {
+                load(sample, offset + i).mul(gain).add(FloatVector.fromArray(FLOATS, mix, i)).intoArray(mix, i);
+            }
+        } else {
+            FloatVector ramp = LANE_FRAMES.mul(-step);
+            for (; i < bound; i += LANES) {
+                FloatVector g = ramp.add(gain - step * (i / CHANNELS)).max(0f);
+                load(sample, offset + i).fma(g, FloatVector.fromArray(FLOATS, mix, i)).intoArray(mix, i);
+            }
+        }
+        // leftover samples that do not fill a whole vector
+        for (; i < n; i++) {
+            float g = Math.max(0f, gain - step * (i / CHANNELS));
+            mix[i] += sample.getShort(2 * (offset + i)) * g;
+        }
+    }
+
+    // LANES samples starting at interleaved index, widened to floats
+    private static FloatVector load(ByteBuffer sample, int index) {
+        return (FloatVector) ShortVector.fromByteBuffer(SHORTS, sample, 2 * index, ByteOrder.LITTLE_ENDIAN)
+                .convertShape(VectorOperators.S2F, FLOATS, 0);
+    }
+
+    @Override
+    public String toString() {
+        return "vector (" + LANES + " x float)";
+    }
+}
@@ -0,0 +1,66 @@
+/*
+ * One playing instance of a note in the mixer.
+ *
+ * Voices are preallocated by the VoicePool and reused; a key press takes a
+ * voice and the voice is freed again when its sample ends or its release
+ * envelope has faded to silence.
+ */
+final class Voice {
+
+    boolean active;
+
+    // piano note (0 = C3 ... 35 = B5)
+    int note;
+
+    // next frame to play
+    int position;
+
+    // loudness from the note velocity
+    float gain;
+
+    // envelope level, 1 while the key is held and falling to 0 after release
+    float level;
+
+    // envelope decrease per frame, 0 while the key is held
+    float releaseStep;
+
+    // key released while the sustain pedal is down, waiting for the pedal
+    boolean sustained;
+
+    // fading out quickly to make room for another note
+    boolean stolen;
+
+    // order in which the voice was started, lower is older
+    long startOrder;
+
+    void start(int note, float gain, long startOrder) {
+        this.active = true;
+        this.note = note;
+        this.position = 0;
+        this.gain = gain;
+        this.level = 1f;
+        this.releaseStep = 0f;
+        this.sustained = false;
+        this.stolen = false;
+        this.startOrder = startOrder;
+    }
+
+    // start fading out, reaching silence after releaseFrames frames
+    void release(int releaseFrames) {
+        releaseStep = level / Math.max(1, releaseFrames);
+        sustained = false;
+    }
+
+    boolean isReleasing() {
+        return releaseStep > 0f;
+    }
+
+    // current loudness, used to pick a voice to steal
+    float loudness() {
+        return gain * level;
+    }
+
+    void stop() {
+        active = false;
+    }
+}
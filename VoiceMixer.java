@@ -0,0 +1,120 @@
+import java.nio.ByteBuffer;
+import java.util.Arrays;
+
+/*
+ * The mixing core: applies note events to a VoicePool and sums the active
+ * voices into fixed-size blocks of float samples. It has no output of its
+ * own, so the same code drives the live AudioEngine and the OfflineRenderer.
+ * The per-voice inner loop is a MixKernel (SIMD when the Vector API is
+ * available). The Metronome is mixed in on top, so its clicks land on the same
+ * frames as the notes.
+ *
+ * Not thread-safe, a mixer belongs to the one thread that renders with it.
+ */
+final class VoiceMixer {
+
+    static final int CHANNELS = SampleBank.CHANNELS;
+
+    // frames mixed per block (about 5.8 ms at 44.1 kHz)
+    static final int BLOCK_FRAMES = 256;
+
+    // headroom so that big chords do not clip straight away
+    private static final float MASTER_GAIN = 0.5f;
+
+    // voices sounding at once unless changed with setPolyphony
+    static final int DEFAULT_POLYPHONY = Integer.getInteger("melokeys.polyphony", 32);
+
+    // fade-out after a key is released, unless changed with setReleaseFrames
+    static final int DEFAULT_RELEASE_MILLIS = Integer.getInteger("melokeys.release", 120);
+
+    // shared by every mixer, kernels have no state
+    static final MixKernel KERNEL = MixKernel.best();
+
+    private final SampleBank bank;
+    private final VoicePool voices;
+    private final Metronome metronome = new Metronome();
+    private int releaseFrames = millisToFrames(DEFAULT_RELEASE_MILLIS);
+
+    VoiceMixer(SampleBank bank) {
+        this.bank = bank;
+        this.voices = new VoicePool(DEFAULT_POLYPHONY);
+    }
+
+    static int millisToFrames(int millis) {
+        return (int) (Math.max(1, millis) * (long) SampleBank.SAMPLE_RATE / 1000);
+    }
+
+    int polyphony() {
+        return voices.polyphony();
+    }
+
+    void setPolyphony(int polyphony) {
+        voices.setPolyphony(polyphony);
+    }
+
+    void setReleaseFrames(int releaseFrames) {
+        this.releaseFrames = releaseFrames;
+    }
+
+    // settings may be changed from any thread
+    Metronome metronome() {
+        return metronome;
+    }
+
+    // apply one NoteEventQueue event; true if it started a voice
+    boolean handle(int event) {
+        int note = NoteEventQueue.note(event);
+        switch (NoteEventQueue.type(event)) {
+            case NoteEventQueue.NOTE_ON -> {
+                // notes that are still loading stay silent
+                if (bank.sample(note) != null) {
+                    voices.start(note, NoteEventQueue.velocity(event) / 127f);
+                    return true;
+                }
+            }
+            case NoteEventQueue.NOTE_OFF -> voices.release(note, releaseFrames);
+            case NoteEventQueue.SUSTAIN -> voices.sustain(NoteEventQueue.velocity(event) >= 64, releaseFrames);
+        }
+        return false;
+    }
+
+    // no voice is sounding
+    boolean isSilent() {
+        return voices.activeCount() == 0;
+    }
+
+    // sum every active voice into the next block (BLOCK_FRAMES interleaved frames)
+    void mix(float[] mix) {
+        Arrays.fill(mix, 0f);
+        for (Voice voice : voices.voices()) {
+            if (!voice.active) continue;
+            ByteBuffer sample = bank.sample(voice.note);
+            int length = bank.frames(voice.note);
+            int frames = Math.min(BLOCK_FRAMES, length - voice.position);
+            int offset = voice.position * CHANNELS;
+            if (!voice.isReleasing()) {
+                KERNEL.accumulate(mix, sample, offset, frames, voice.loudness(), 0f);
+            } else {
+                // linear fade, one step per frame, ending the voice at silence
+                frames = Math.min(frames, (int) Math.ceil(voice.level / voice.releaseStep));
+                KERNEL.accumulate(mix, sample, offset, frames, voice.loudness(), voice.gain * voice.releaseStep);
+                voice.level = Math.max(0f, voice.level - voice.releaseStep * frames);
+            }
+            voice.position += frames;
+            if (voice.position >= length || voice.level <= 0f) {
+                voice.stop();
+            }
+        }
+        metronome.mix(mix, BLOCK_FRAMES);
+    }
+
+    // convert a mixed block to 16 bit little-endian PCM, clipping at full scale
+    static void toPcm(float[] mix, byte[] out) {
+        for (int i = 0; i < mix.length; i++) {
+            float s = mix[i] * MASTER_GAIN;
+            int v = s >= 32767f ? 32767 : s <= -32768f ? -32768 : (int) s;
+            out[2 * i] = (byte) v;
+            out[2 * i + 1] = (byte) (v >> 8);
+        }
+    }
+}
@@ -0,0 +1,170 @@
+/*
+ * Fixed set of voices shared by every note.
+ *
+ * Every key press gets its own voice, even when the same note is already
+ * sounding, so repeated notes and trills are never dropped. The number of
+ * voices sounding at once is capped; when the cap is reached the quietest
+ * voice is stolen (the oldest one if several are equally quiet), which keeps
+ * the mixing cost bounded in dense passages. A stolen voice is not cut off,
+ * which would click: it fades out over STEAL_FRAMES while the new note
+ * starts on a free voice. Lowering the cap fades out the voices above it the
+ * same way.
+ *
+ * While the sustain pedal is down, released keys keep their voices
+ * ("sustained" voices). At most 3/4 of the polyphony can be held this way;
+ * beyond that the oldest sustained voice starts its release, so holding the
+ * pedal through a whole passage still leaves voices for new notes.
+ *
+ * Not thread-safe, it is only used by the mixer.
+ */
+final class VoicePool {
+
+    // voices allocated up front, the polyphony limit can not go above this
+    static final int MAX_VOICES = 128;
+
+    // fade-out of a stolen voice, short but long enough not to click
+    static final int STEAL_FRAMES = VoiceMixer.millisToFrames(3);
+
+    private final Voice[] voices = new Voice[MAX_VOICES];
+
+    // voices allowed to sound at once
+    private int polyphony;
+
+    private long startCounter;
+
+    private boolean pedalDown;
+
+    VoicePool(int polyphony) {
+        for (int i = 0; i < MAX_VOICES; i++) {
+            voices[i] = new Voice();
+        }
+        setPolyphony(polyphony);
+    }
+
+    int polyphony() {
+        return polyphony;
+    }
+
+    // voices above a lowered limit are stolen
+    void setPolyphony(int polyphony) {
+        this.polyphony = Math.max(1, Math.min(MAX_VOICES, polyphony));
+        for (int excess = soundingCount() - this.polyphony; excess > 0; excess--) {
+            steal(victim());
+        }
+    }
+
+    // all voices, active or not
+    Voice[] voices() {
+        return voices;
+    }
+
+    int activeCount() {
+        int count = 0;
+        for (Voice voice : voices) {
+            if (voice.active) count++;
+        }
+        return count;
+    }
+
+    // start a note on a free voice, stealing one if the limit is reached
+    Voice start(int note, float gain) {
+        Voice voice = null;
+        for (Voice free : voices) {
+            if (!free.active) {
+                voice = free;
+                break;
+            }
+        }
+        if (voice == null) {
+            // every voice is in use, so one has to be cut off without a fade
+            Voice victim = victim();
+            voice = victim != null ? victim : voices[0];
+        } else if (soundingCount() >= polyphony) {
+            steal(victim());
+        }
+        voice.start(note, gain, startCounter++);
+        return voice;
+    }
+
+    // active voices that have not been stolen, the ones the limit applies to
+    private int soundingCount() {
+        int count = 0;
+        for (Voice voice : voices) {
+            if (voice.active && !voice.stolen) count++;
+        }
+        return count;
+    }
+
+    // the quietest voice that has not been stolen (the oldest if several are
+    // equally quiet), null if there is none
+    private Voice victim() {
+        Voice victim = null;
+        for (Voice voice : voices) {
+            if (!voice.active || voice.stolen) continue;
+            if (victim == null || voice.loudness() < victim.loudness()
+                    || (voice.loudness() == victim.loudness() && voice.startOrder < victim.startOrder)) {
+                victim = voice;
+            }
+        }
+        return victim;
+    }
+
+    // fade a voice out over STEAL_FRAMES, or sooner if it is already ending
+    private void steal(Voice voice) {
+        if (!voice.isReleasing() || voice.level / voice.releaseStep > STEAL_FRAMES) {
+            voice.release(STEAL_FRAMES);
+        }
+        voice.stolen = true;
+    }
+
+    // key up: start the release of every held voice of a note, or keep
+    // them sounding if the sustain pedal is down
+    void release(int note, int releaseFrames) {
+        for (Voice voice : voices) {
+            if (voice.active && voice.note == note && !voice.isReleasing() && !voice.sustained) {
+                if (pedalDown) {
+                    voice.sustained = true;
+                } else {
+                    voice.release(releaseFrames);
+                }
+            }
+        }
+        if (pedalDown) {
+            limitSustained(releaseFrames);
+        }
+    }
+
+    // pedal down holds released keys, pedal up releases them all
+    void sustain(boolean down, int releaseFrames) {
+        pedalDown = down;
+        if (!down) {
+            for (Voice voice : voices) {
+                if (voice.active && voice.sustained) {
+                    voice.release(releaseFrames);
+                }
+            }
+        }
+    }
+
+    int sustainedCount() {
+        int count = 0;
+        for (Voice voice : voices) {
+            if (voice.active && voice.sustained) count++;
+        }
+        return count;
+    }
+
+    // release the oldest sustained voices above the sustain limit
+    private void limitSustained(int releaseFrames) {
+        int excess = sustainedCount() - Math.max(1, polyphony * 3 / 4);
+        while (excess-- > 0) {
+            Voice oldest = null;
+            for (Voice voice : voices) {
+                if (voice.active && voice.sustained && (oldest == null || voice.startOrder < oldest.startOrder)) {
+                    oldest = voice;
+                }
+            }
+            oldest.release(releaseFrames);
+        }
+    }
+}